@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.benchmarks;
+
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.utils.TwainUtils;
+import free.lucifer.jtwain.variable.TwainArray;
+import free.lucifer.jtwain.variable.TwainContainer;
+import free.lucifer.jtwain.variable.TwainEnumeration;
+import free.lucifer.jtwain.variable.TwainOneValue;
+import free.lucifer.jtwain.variable.TwainRange;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Capability container decode (constructor from the DS bytes) and encode
+ * ({@link TwainContainer#getBytes()}) for every container kind, and reading
+ * the items of a fresh enumeration boxed or as a primitive view.
+ *
+ * @author lucifer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerBenchmark {
+
+    @Param({"2", "4", "7"})
+    public int itemType;
+
+    @Param({"8", "64"})
+    public int items;
+
+    private byte[] oneValue;
+    private byte[] array;
+    private byte[] enumeration;
+    private byte[] range;
+
+    private TwainContainer oneValueContainer;
+    private TwainContainer arrayContainer;
+    private TwainContainer enumerationContainer;
+    private TwainContainer rangeContainer;
+
+    @Setup
+    public void setup() {
+        int size = TwainContainer.TYPE_SIZES[itemType];
+
+        oneValue = new byte[6];
+        TwainUtils.setINT16(oneValue, 0, itemType);
+        put(oneValue, 2, 1);
+
+        array = new byte[6 + items * size];
+        TwainUtils.setINT16(array, 0, itemType);
+        TwainUtils.setINT32(array, 2, items);
+        for (int i = 0; i < items; i++) {
+            put(array, 6 + i * size, i);
+        }
+
+        enumeration = new byte[14 + items * size];
+        TwainUtils.setINT16(enumeration, 0, itemType);
+        TwainUtils.setINT32(enumeration, 2, items);
+        TwainUtils.setINT32(enumeration, 6, items / 2);
+        TwainUtils.setINT32(enumeration, 10, 0);
+        for (int i = 0; i < items; i++) {
+            put(enumeration, 14 + i * size, i);
+        }
+
+        range = new byte[22];
+        TwainUtils.setINT16(range, 0, itemType);
+        put(range, 2, 0);
+        put(range, 6, items);
+        put(range, 10, 1);
+        put(range, 14, 0);
+        put(range, 18, items / 2);
+
+        oneValueContainer = new TwainOneValue(Twain.ICAP_XRESOLUTION, oneValue);
+        arrayContainer = new TwainArray(Twain.ICAP_XRESOLUTION, array);
+        enumerationContainer = new TwainEnumeration(Twain.ICAP_XRESOLUTION, enumeration);
+        rangeContainer = new TwainRange(Twain.ICAP_XRESOLUTION, range);
+    }
+
+    private void put(byte[] buf, int off, int v) {
+        if (itemType == Twain.TWTY_FIX32) {
+            TwainUtils.setFIX32(buf, off, v);
+        } else if (TwainContainer.TYPE_SIZES[itemType] == 2) {
+            TwainUtils.setINT16(buf, off, v);
+        } else {
+            TwainUtils.setINT32(buf, off, v);
+        }
+    }
+
+    @Benchmark
+    public TwainContainer decodeOneValue() {
+        return new TwainOneValue(Twain.ICAP_XRESOLUTION, oneValue);
+    }
+
+    @Benchmark
+    public TwainContainer decodeArray() {
+        return new TwainArray(Twain.ICAP_XRESOLUTION, array);
+    }
+
+    @Benchmark
+    public TwainContainer decodeEnumeration() {
+        return new TwainEnumeration(Twain.ICAP_XRESOLUTION, enumeration);
+    }
+
+    @Benchmark
+    public TwainContainer decodeRange() {
+        return new TwainRange(Twain.ICAP_XRESOLUTION, range);
+    }
+
+    @Benchmark
+    public byte[] encodeOneValue() {
+        return oneValueContainer.getBytes();
+    }
+
+    @Benchmark
+    public byte[] encodeArray() {
+        return arrayContainer.getBytes();
+    }
+
+    @Benchmark
+    public byte[] encodeEnumeration() {
+        return enumerationContainer.getBytes();
+    }
+
+    @Benchmark
+    public byte[] encodeRange() {
+        return rangeContainer.getBytes();
+    }
+
+    @Benchmark
+    public Object[] enumerationBoxedItems() {
+        return new TwainEnumeration(Twain.ICAP_XRESOLUTION, enumeration).getItems();
+    }
+
+    @Benchmark
+    public double[] enumerationDoubleItems() throws Exception {
+        return new TwainEnumeration(Twain.ICAP_XRESOLUTION, enumeration).getDoubleItems();
+    }
+
+    @Benchmark
+    public int enumerationIndexOf() throws Exception {
+        return new TwainEnumeration(Twain.ICAP_XRESOLUTION, enumeration).indexOf(items - 1);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.benchmarks;
+
+import com.sun.jna.Memory;
+import free.lucifer.jtwain.TwainPage;
+import free.lucifer.jtwain.image.TwainDibDecoder;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Native transfer path: a DIB in native memory, as handed over by
+ * DG_IMAGE/DAT_IMAGENATIVEXFER, turned into a page and a decoded image. Scores
+ * are pages per second.
+ *
+ * @author lucifer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DibDecodeBenchmark {
+
+    @Param({"1", "4", "8", "16", "24", "32", "48"})
+    public int bitCount;
+
+    @Param({"1654x2339", "2480x3508", "4960x7016"})
+    public String size;
+
+    @Param({"false"})
+    public boolean gray;
+
+    private Memory mem;
+    private int length;
+
+    @Setup
+    public void setup() {
+        int[] wh = Dibs.parseSize(size);
+        byte[] dib = Dibs.create(wh[0], wh[1], bitCount, gray);
+        length = dib.length;
+        mem = Dibs.toMemory(dib);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mem = null;
+    }
+
+    /**
+     * Same steps as Twain.ntransferPage: copy out of the handle, check the
+     * header.
+     */
+    @Benchmark
+    public TwainPage transfer() throws Exception {
+        return new TwainPage(mem.getByteArray(0, length));
+    }
+
+    /**
+     * Transfer plus full decode to a raster.
+     */
+    @Benchmark
+    public BufferedImage transferAndDecode() throws Exception {
+        return new TwainPage(mem.getByteArray(0, length)).getImage();
+    }
+
+    /**
+     * Decode straight from native memory, no intermediate heap copy.
+     */
+    @Benchmark
+    public BufferedImage decodeDirect() throws Exception {
+        return new TwainDibDecoder(mem.getByteBuffer(0, length)).decode(mem.getByteBuffer(0, length));
+    }
+}
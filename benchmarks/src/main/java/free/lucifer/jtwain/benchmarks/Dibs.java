@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.benchmarks;
+
+import com.sun.jna.Memory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic packed DIBs for the benchmarks: BITMAPINFOHEADER, gray or
+ * random palette and noise pixels, bottom-up like most drivers deliver them.
+ *
+ * @author lucifer
+ */
+public class Dibs {
+
+    public static int getBytesPerLine(int width, int bitCount) {
+        return (((width * bitCount) + 31) >> 5) << 2;
+    }
+
+    public static byte[] create(int width, int height, int bitCount, boolean gray) {
+        int colors = bitCount <= 8 ? 1 << bitCount : 0;
+        int compression = bitCount == 16 || bitCount == 32 ? 3 : 0;
+        int masks = compression == 3 ? 12 : 0;
+        int offset = 40 + masks + colors * 4;
+        int bpl = getBytesPerLine(width, bitCount);
+
+        ByteBuffer dib = ByteBuffer.allocate(offset + bpl * height).order(ByteOrder.LITTLE_ENDIAN);
+        dib.putInt(40).putInt(width).putInt(height);
+        dib.putShort((short) 1).putShort((short) bitCount);
+        dib.putInt(compression).putInt(bpl * height);
+        dib.putInt(11811).putInt(11811);
+        dib.putInt(colors).putInt(0);
+        if (bitCount == 16) {
+            dib.putInt(0xF800).putInt(0x07E0).putInt(0x001F);
+        } else if (bitCount == 32) {
+            dib.putInt(0x00FF0000).putInt(0x0000FF00).putInt(0x000000FF);
+        }
+
+        Random random = new Random(bitCount * 31 + width);
+        for (int i = 0; i < colors; i++) {
+            if (gray) {
+                int v = i * 255 / (colors - 1);
+                dib.put((byte) v).put((byte) v).put((byte) v).put((byte) 0);
+            } else {
+                dib.putInt(random.nextInt() & 0x00FFFFFF);
+            }
+        }
+        byte[] data = dib.array();
+        byte[] noise = new byte[bpl];
+        for (int y = 0; y < height; y++) {
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, data, offset + y * bpl, bpl);
+        }
+        return data;
+    }
+
+    public static Memory toMemory(byte[] dib) {
+        Memory mem = new Memory(dib.length);
+        mem.write(0, dib, 0, dib.length);
+        return mem;
+    }
+
+    public static int[] parseSize(String size) {
+        int x = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))};
+    }
+}
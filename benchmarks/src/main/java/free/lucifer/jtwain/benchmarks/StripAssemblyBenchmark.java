@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.benchmarks;
+
+import com.sun.jna.Memory;
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.image.TwainStripAssembler;
+import free.lucifer.jtwain.libs.Win32Twain;
+import free.lucifer.jtwain.transfer.TwainMemoryTransfer;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Memory transfer path: a page delivered as a sequence of
+ * TwainMemoryTransfer.Info strips of the given buffer size, each loaded from a
+ * written TW_IMAGEMEMXFER and native buffer held in JNA Memory through
+ * TwainMemoryTransfer.append, put together by {@link TwainStripAssembler} with
+ * the page length known up front or not.
+ * {@link #assemble()} copies every strip to the Info array first,
+ * {@link #assembleDirect()} reads it through the direct view.
+ * {@link #copy()} is the plain row copy baseline. Scores are pages per second.
+ *
+ * @author lucifer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StripAssemblyBenchmark {
+
+    @Param({"8", "24"})
+    public int bitCount;
+
+    @Param({"1654x2339", "2480x3508", "4960x7016"})
+    public String size;
+
+    @Param({"32768", "262144", "1048576"})
+    public int bufferSize;
+
+    @Param({"false", "true"})
+    public boolean undefinedLength;
+
+    private int width;
+    private int height;
+    private int bytesPerRow;
+    private int rowsPerStrip;
+    private byte[] strip;
+    private Win32Twain.TW_IMAGEMEMXFER[] strips;
+    private Memory memory;
+    private TwainMemoryTransfer.Info info;
+
+    @Setup
+    public void setup() {
+        int[] wh = Dibs.parseSize(size);
+        width = wh[0];
+        height = wh[1];
+        bytesPerRow = Dibs.getBytesPerLine(width, bitCount);
+        rowsPerStrip = Math.max(1, bufferSize / bytesPerRow);
+        strip = new byte[rowsPerStrip * bytesPerRow];
+        new java.util.Random(bitCount).nextBytes(strip);
+        strips = new Win32Twain.TW_IMAGEMEMXFER[(height + rowsPerStrip - 1) / rowsPerStrip];
+        for (int i = 0; i < strips.length; i++) {
+            int top = i * rowsPerStrip;
+            Win32Twain.TW_IMAGEMEMXFER imx = new Win32Twain.TW_IMAGEMEMXFER();
+            imx.BytesPerRow = bytesPerRow;
+            imx.Columns = width;
+            imx.Rows = Math.min(rowsPerStrip, height - top);
+            imx.YOffset = top;
+            imx.BytesWritten = imx.Rows * bytesPerRow;
+            imx.write();
+            strips[i] = imx;
+        }
+        memory = new Memory(strip.length);
+        memory.write(0, strip, 0, strip.length);
+        info = new TwainMemoryTransfer.Info(strip.length);
+    }
+
+    @Benchmark
+    public BufferedImage assemble() throws Exception {
+        TwainStripAssembler assembler = createAssembler();
+        for (Win32Twain.TW_IMAGEMEMXFER imx : strips) {
+            TwainMemoryTransfer.append(assembler, info, imx.getPointer(), memory, false);
+        }
+        return assembler.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage assembleDirect() throws Exception {
+        TwainStripAssembler assembler = createAssembler();
+        for (Win32Twain.TW_IMAGEMEMXFER imx : strips) {
+            TwainMemoryTransfer.append(assembler, info, imx.getPointer(), memory, true);
+        }
+        return assembler.getImage();
+    }
+
+    @Benchmark
+    public BufferedImage copy() {
+        BufferedImage image = new BufferedImage(width, height, bitCount == 8 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = width * bitCount / 8;
+        for (int top = 0; top < height; top += rowsPerStrip) {
+            int rows = Math.min(rowsPerStrip, height - top);
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(strip, r * bytesPerRow, data, (top + r) * stride, stride);
+            }
+        }
+        return image;
+    }
+
+    private TwainStripAssembler createAssembler() throws Exception {
+        return new TwainStripAssembler(width, undefinedLength ? -1 : height, bitCount, bitCount == 8 ? Twain.TWPT_GRAY : Twain.TWPT_RGB);
+    }
+}
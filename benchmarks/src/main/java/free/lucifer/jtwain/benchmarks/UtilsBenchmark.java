@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.benchmarks;
+
+import free.lucifer.jtwain.utils.TwainUtils;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link TwainUtils} primitive codecs over a 4 KB buffer.
+ *
+ * @author lucifer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+
+    private static final int SIZE = 4096;
+
+    private final byte[] buf = new byte[SIZE];
+
+    @Setup
+    public void setup() {
+        new Random(42).nextBytes(buf);
+    }
+
+    @Benchmark
+    public int getINT16() {
+        int sum = 0;
+        for (int i = 0; i < SIZE; i += 2) {
+            sum += TwainUtils.getINT16(buf, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int getINT32() {
+        int sum = 0;
+        for (int i = 0; i < SIZE; i += 4) {
+            sum += TwainUtils.getINT32(buf, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long getINT64() {
+        long sum = 0;
+        for (int i = 0; i < SIZE; i += 8) {
+            sum += TwainUtils.getINT64(buf, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double getFIX32() {
+        double sum = 0;
+        for (int i = 0; i < SIZE; i += 4) {
+            sum += TwainUtils.getFIX32(buf, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public byte[] setINT32() {
+        for (int i = 0; i < SIZE; i += 4) {
+            TwainUtils.setINT32(buf, i, i);
+        }
+        return buf;
+    }
+
+    @Benchmark
+    public byte[] setFIX32() {
+        for (int i = 0; i < SIZE; i += 4) {
+            TwainUtils.setFIX32(buf, i, i * 0.25);
+        }
+        return buf;
+    }
+}
@@ -19,20 +19,24 @@ import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.platform.win32.User32;
 import com.sun.jna.platform.win32.WinDef;
-import com.sun.jna.platform.win32.WinGDI;
 import com.sun.jna.platform.win32.WinNT;
 import com.sun.jna.platform.win32.WinUser;
 import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.image.TwainDibDecoder;
+import free.lucifer.jtwain.image.TwainDibWriter;
+import free.lucifer.jtwain.image.TwainStripStore;
 import free.lucifer.jtwain.libs.Kernel32;
 import free.lucifer.jtwain.libs.Win32Twain;
 import free.lucifer.jtwain.libs.Win32Twain.TW_IDENTITY;
+import free.lucifer.jtwain.trace.TwainTracer;
+import free.lucifer.jtwain.transfer.TwainFileTransferNamer;
+import free.lucifer.jtwain.transfer.TwainMemoryPool;
 import free.lucifer.jtwain.transfer.TwainMemoryTransfer;
 import free.lucifer.jtwain.variable.TwainContainer;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.IndexColorModel;
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.List;
@@ -137,6 +141,23 @@ public class Twain {
     public static final short TWCP_RLE8 = 11;
     public static final short TWCP_BITFIELDS = 12;
 
+    public static final short TWPT_BW = 0;
+    public static final short TWPT_GRAY = 1;
+    public static final short TWPT_RGB = 2;
+    public static final short TWPT_PALETTE = 3;
+    public static final short TWPT_CMY = 4;
+    public static final short TWPT_CMYK = 5;
+    public static final short TWPT_YUV = 6;
+    public static final short TWPT_YUVK = 7;
+    public static final short TWPT_CIEXYZ = 8;
+
+    public static final short TWPF_CHOCOLATE = 0;
+    public static final short TWPF_VANILLA = 1;
+
+    public static final short TWPA_RGB = 0;
+    public static final short TWPA_GRAY = 1;
+    public static final short TWPA_CMY = 2;
+
     public static final short DG_CONTROL = 1;
     public static final short DG_IMAGE = 2;
     public static final short DG_AUDIO = 4;
@@ -163,6 +184,12 @@ public class Twain {
     public static final int TWON_ONEVALUE = 5;
     public static final int TWON_RANGE = 6;
 
+    public static final int TWQC_GET = 0x0001;
+    public static final int TWQC_SET = 0x0002;
+    public static final int TWQC_GETDEFAULT = 0x0004;
+    public static final int TWQC_GETCURRENT = 0x0008;
+    public static final int TWQC_RESET = 0x0010;
+
     public static final int TWTY_INT8 = 0x0000;
     public static final int TWTY_INT16 = 0x0001;
     public static final int TWTY_INT32 = 0x0002;
@@ -812,6 +839,8 @@ public class Twain {
     }
 
     public static void done() {
+        TwainMemoryPool.clear();
+        TwainStripStore.clear();
         User32.INSTANCE.PostMessage(hwnd, WinUser.WM_QUIT, null, null);
     }
 
@@ -835,8 +864,8 @@ public class Twain {
     }
 //
 
-    private static int OpenDSM(TW_IDENTITY application, WinDef.HWND winHdl) {
-        int stat = twain.DSM_Entry(application, null, DG_CONTROL, DAT_PARENT, MSG_OPENDSM, new WinNT.HANDLEByReference(winHdl));
+    private static int OpenDSM(WinDef.HWND winHdl) {
+        int stat = callSourceManager(DG_CONTROL, DAT_PARENT, MSG_OPENDSM, new WinNT.HANDLEByReference(winHdl));
         return stat;
     }
 
@@ -881,7 +910,7 @@ public class Twain {
                     }
 
                     setupAppId(g_AppID);
-                    int stat = OpenDSM(g_AppID, hwnd);
+                    int stat = OpenDSM(hwnd);
 
                     if (stat != TWRC_SUCCESS) {
                         User32.INSTANCE.DestroyWindow(hwnd);
@@ -936,8 +965,27 @@ public class Twain {
         return sourceManager = new TwainSourceManager(hwnd);
     }
 
+    private static volatile TwainTracer tracer;
+
+    /**
+     * Every triplet sent to the source manager or a source goes to the
+     * tracer. Null, the default, turns tracing off.
+     */
+    public static void setTracer(TwainTracer t) {
+        tracer = t;
+    }
+
+    public static TwainTracer getTracer() {
+        return tracer;
+    }
+
     static int callSourceManager(int dg, int id, int msg, Object obj) {
+        TwainTracer t = tracer;
+        long start = t == null ? 0 : System.nanoTime();
         int rc = DSM_Entry(g_AppID, null, dg, (short) id, (short) msg, obj);
+        if (t != null) {
+            t.trace(TwainTracer.SOURCE_MANAGER, dg, id, msg, rc, obj, System.nanoTime() - start);
+        }
 
         if (dg == DG_CONTROL && id == DAT_IDENTITY && msg == MSG_USERSELECT) {
             // Set foreground window
@@ -948,7 +996,12 @@ public class Twain {
 
     static int callSource(TW_IDENTITY identity, int dg, int id, int msg, Object obj) {
 //        int rc = DSM_Entry(g_AppID, identity, dg, (short) id, (short) msg, obj);
+        TwainTracer t = tracer;
+        long start = t == null ? 0 : System.nanoTime();
         int rc = DSM_Entry(g_AppID, identity, dg, (short) id, (short) msg, obj);
+        if (t != null) {
+            t.trace(identity.Id, dg, id, msg, rc, obj, System.nanoTime() - start);
+        }
 
         if (dg == DG_CONTROL && id == DAT_IDENTITY && msg == MSG_USERSELECT) {
             // Set foreground window
@@ -1047,7 +1100,7 @@ public class Twain {
         DSM_Free(containerHandle);
     }
 
-    static void signalException(String string) {
+    public static void signalException(String string) {
         TwainScanner scanner = getScanner();
         if (scanner != null) {
             scanner.signalException(string);
@@ -1115,38 +1168,42 @@ public class Twain {
         getSourceManager().getSource().setCancel(c);
     }
 
-    public static void nnew(byte[] imx, int preferredSize) {
-        Pointer p = kernel32.GlobalAlloc(0, preferredSize);
-        Win32Twain.TW_IMAGEMEMXFER im = new Win32Twain.TW_IMAGEMEMXFER();
-        im.getPointer().write(0, imx, 0, im.size());
-        im.read();
-
-        im.Memory.Flags = TWMF_APPOWNS | TWMF_HANDLE;
-        im.Memory.Length = preferredSize;
-        im.Memory.TheMem = p;
+    public static Pointer nnew(int size) {
+        return kernel32.GlobalAlloc(0, size);
+    }
 
-        im.write();
-        im.getPointer().read(0, imx, 0, im.size());
+    public static void nbind(Win32Twain.TW_IMAGEMEMXFER imx, Pointer handle, int size) {
+        imx.Memory.Flags = TWMF_APPOWNS | TWMF_HANDLE;
+        imx.Memory.Length = size;
+        imx.Memory.TheMem = handle;
+        imx.write();
+    }
 
-        im.Memory.TheMem = null;
+    public static Pointer nlock(Pointer handle) {
+        return kernel32.GlobalLock(handle);
     }
 
-    public static int ncopy(byte[] buffer, byte[] imx, int bytesWritten) {
-        Win32Twain.TW_IMAGEMEMXFER ix = new Win32Twain.TW_IMAGEMEMXFER();
-        ix.getPointer().write(0, imx, 0, ix.size());
-        ix.read();
+    public static void nunlock(Pointer handle) {
+        kernel32.GlobalUnlock(handle);
+    }
 
-        Pointer p = kernel32.GlobalLock(ix.Memory.TheMem);
+    public static int ncopy(byte[] buffer, Pointer handle, int bytesWritten) {
+        Pointer p = kernel32.GlobalLock(handle);
 
         p.read(0, buffer, 0, bytesWritten);
 
-        kernel32.GlobalUnlock(p);
-
-        ix.Memory.TheMem = null;
+        kernel32.GlobalUnlock(handle);
 
         return bytesWritten;
     }
 
+    public static void transferImageInfo(TwainImageInfo imageInfo) {
+        TwainScanner scanner = getScanner();
+        if (scanner != null) {
+            scanner.setImageInfo(imageInfo);
+        }
+    }
+
     public static void transferMemoryBuffer(TwainMemoryTransfer.Info info) {
         TwainScanner scanner = getScanner();
         if (scanner != null) {
@@ -1154,28 +1211,78 @@ public class Twain {
         }
     }
 
-    public static void ndelete(byte[] imx) {
-
-        Win32Twain.TW_IMAGEMEMXFER im = new Win32Twain.TW_IMAGEMEMXFER();
-        im.getPointer().write(0, imx, 0, im.size());
-        im.read();
+    public static void transferMemoryImage(BufferedImage image) {
+        TwainScanner scanner = getScanner();
+        if (scanner != null) {
+            scanner.setImage(image);
+        }
+    }
 
-        if (im.Memory.TheMem != Pointer.NULL) {
-            kernel32.GlobalFree(im.Memory.TheMem);
-            im.Memory.TheMem = Pointer.NULL;
+    public static void transferMemoryFile(File file) {
+        TwainScanner scanner = getScanner();
+        if (scanner != null) {
+            scanner.setWritten(file);
         }
+    }
 
-        im.write();
-        im.getPointer().read(0, imx, 0, im.size());
+    public static void ndelete(Pointer handle) {
+        if (handle != Pointer.NULL) {
+            kernel32.GlobalFree(handle);
+        }
     }
 
     public static void transferNativeImage(int handle) {
 
-        BufferedImage image = (BufferedImage) ntransferImage(handle);
-        if (image != null) {
+        TwainPage page = ntransferPage(handle);
+        if (page != null) {
+            TwainScanner scanner = getScanner();
+            if (scanner != null) {
+                scanner.setPage(page);
+            }
+        }
+    }
+
+    public static void transferNativeFile(int handle, File file, int format) {
+        transferNativeFile(handle, file, format, null);
+    }
+
+    /**
+     * @param namer lands the file once written, may be null
+     */
+    public static void transferNativeFile(int handle, File file, int format, TwainFileTransferNamer namer) {
+
+        if (handle == 0) {
+            return;
+        }
+
+        Pointer HANDLE = new Pointer(handle);
+        Pointer p = DSM_Lock(HANDLE);
+        if (p == null) {
+            return;
+        }
+        boolean written = false;
+        try {
+            TwainDibDecoder decoder = new TwainDibDecoder(p.getByteBuffer(0, TwainDibDecoder.HEADER_SIZE));
+            new TwainDibWriter(p.getByteBuffer(0, decoder.getDibSize())).write(file, format);
+            written = true;
+        } catch (TwainException | IOException e) {
+            signalException(e.getMessage());
+        } finally {
+            DSM_Unlock(HANDLE);
+            DSM_Free(HANDLE);
+        }
+        if (written && namer != null) {
+            try {
+                file = namer.land(file);
+            } catch (IOException e) {
+                signalException(e.getMessage());
+                written = false;
+            }
+        }
+        if (written) {
             TwainScanner scanner = getScanner();
             if (scanner != null) {
-                scanner.setImage(image);
+                scanner.setWritten(file);
             }
         }
     }
@@ -1189,6 +1296,20 @@ public class Twain {
         }
     }
 
+    public static void transferFilePage(File file, int pages) {
+        TwainScanner scanner = getScanner();
+        if (scanner != null) {
+            scanner.setFilePage(file, pages);
+        }
+    }
+
+    public static void transferFileBatch(File file, int pages) {
+        TwainScanner scanner = getScanner();
+        if (scanner != null) {
+            scanner.setFileBatch(file, pages);
+        }
+    }
+
     private static void trigger(Object caller, int cmd) {
         ntrigger(caller, cmd);
     }
@@ -1254,7 +1375,7 @@ public class Twain {
         User32.INSTANCE.PostMessage(hwnd, WinUser.WM_USER, new WinDef.WPARAM(cmd), new WinDef.LPARAM(id));
     }
 
-    private static BufferedImage ntransferImage(int handle) {
+    private static TwainPage ntransferPage(int handle) {
 
         if (handle == 0) {
             return null;
@@ -1265,129 +1386,15 @@ public class Twain {
         if (p == null) {
             return null;
         }
-        WinGDI.BITMAPINFOHEADER bih = (WinGDI.BITMAPINFOHEADER) WinGDI.BITMAPINFOHEADER.newInstance(WinGDI.BITMAPINFOHEADER.class, p);
-        bih.read();
-
-        if (bih.biCompression != WinGDI.BI_RGB && bih.biCompression != WinGDI.BI_BITFIELDS) {
-            signalException("Cannot deal with DIB header");
+        try {
+            TwainDibDecoder decoder = new TwainDibDecoder(p.getByteBuffer(0, TwainDibDecoder.HEADER_SIZE));
+            return new TwainPage(p.getByteArray(0, decoder.getDibSize()));
+        } catch (TwainException e) {
+            signalException(e.getMessage());
+            return null;
+        } finally {
             DSM_Unlock(HANDLE);
             DSM_Free(HANDLE);
-            return null;
         }
-        BufferedImage image = null;
-        switch (bih.biBitCount) {
-            case 1:
-                image = transfer01BitImage(bih);
-                break;
-            case 4:
-                image = transfer04BitImage(bih);
-                break;
-            case 8:
-                image = transfer08BitImage(bih);
-                break;
-            case 24:
-                image = transfer24BitImage(bih);
-                break;
-            default:
-                signalException("Unsupported bit size");
-                break;
-        }
-
-        DSM_Unlock(HANDLE);
-        DSM_Free(HANDLE);
-        return image;
-    }
-
-    private static BufferedImage transfer01BitImage(WinGDI.BITMAPINFOHEADER bih) {
-        BufferedImage img = new BufferedImage(bih.biWidth, bih.biHeight, BufferedImage.TYPE_BYTE_BINARY, readBitIndexModel(bih));
-        DataBufferByte dbi = (DataBufferByte) img.getRaster().getDataBuffer();
-        int size = (bih.biWidth + 7) >> 3;
-
-        int offset = bih.size() + getColorsInPallete(bih) * 4;
-        int coffest = dbi.getData().length - size;
-        int bpl = ((bih.biWidth * bih.biBitCount + 31) >> 5) << 2;
-        for (int i = 0; i < bih.biHeight; i++) {
-            bih.getPointer().read(offset, dbi.getData(), coffest, size);
-            offset += bpl;
-            coffest -= size;
-
-        }
-        return img;
-    }
-
-    private static BufferedImage transfer04BitImage(WinGDI.BITMAPINFOHEADER bih) {
-        BufferedImage img = new BufferedImage(bih.biWidth, bih.biHeight, BufferedImage.TYPE_BYTE_INDEXED, readBitIndexModel(bih));
-        DataBufferByte dbi = (DataBufferByte) img.getRaster().getDataBuffer();
-        int size = (bih.biWidth + 1) >> 1;
-
-        int offset = bih.size() + getColorsInPallete(bih) * 4;
-        int coffest = dbi.getData().length - size;
-        int bpl = ((bih.biWidth * bih.biBitCount + 31) >> 5) << 2;
-        for (int i = 0; i < bih.biHeight; i++) {
-            bih.getPointer().read(offset, dbi.getData(), coffest, size);
-            offset += bpl;
-            coffest -= size;
-
-        }
-
-        return img;
-    }
-
-    private static BufferedImage transfer08BitImage(WinGDI.BITMAPINFOHEADER bih) {
-        BufferedImage img = new BufferedImage(bih.biWidth, bih.biHeight, BufferedImage.TYPE_BYTE_INDEXED, readBitIndexModel(bih));
-        DataBufferByte dbi = (DataBufferByte) img.getRaster().getDataBuffer();
-        int size = bih.biWidth;
-
-        int offset = bih.size() + getColorsInPallete(bih) * 4;
-        int coffest = dbi.getData().length - size;
-        int bpl = ((bih.biWidth * bih.biBitCount + 31) >> 5) << 2;
-        for (int i = 0; i < bih.biHeight; i++) {
-            bih.getPointer().read(offset, dbi.getData(), coffest, size);
-            offset += bpl;
-            coffest -= size;
-        }
-
-        return img;
-    }
-
-    private static BufferedImage transfer24BitImage(WinGDI.BITMAPINFOHEADER bih) {
-        BufferedImage img = new BufferedImage(bih.biWidth, bih.biHeight, BufferedImage.TYPE_3BYTE_BGR);
-        DataBufferByte dbi = (DataBufferByte) img.getRaster().getDataBuffer();
-        int size = bih.biWidth * 3;
-
-        int offset = bih.size();
-        int coffest = dbi.getData().length - size;
-        int bpl = ((bih.biWidth * bih.biBitCount + 31) >> 5) << 2;
-        for (int i = 0; i < bih.biHeight; i++) {
-            bih.getPointer().read(offset, dbi.getData(), coffest, size);
-            offset += bpl;
-            coffest -= size;
-        }
-        return img;
-    }
-
-    private static IndexColorModel readBitIndexModel(WinGDI.BITMAPINFOHEADER bih) {
-        WinGDI.BITMAPINFO bi = (WinGDI.BITMAPINFO) WinGDI.BITMAPINFO.newInstance(WinGDI.BITMAPINFO.class, new Pointer(Pointer.nativeValue(bih.getPointer())));
-
-        int size = getColorsInPallete(bih);
-
-        bi.bmiColors = new WinGDI.RGBQUAD[size];
-        bi.read();
-
-        byte[] r = new byte[size];
-        byte[] g = new byte[size];
-        byte[] b = new byte[size];
-        for (int i = 0; i < size; i++) {
-            r[i] = bi.bmiColors[i].rgbRed;
-            g[i] = bi.bmiColors[i].rgbGreen;
-            b[i] = bi.bmiColors[i].rgbBlue;
-        }
-        IndexColorModel icm = new IndexColorModel(bih.biBitCount, size, r, g, b);
-
-        return icm;
-    }
-
-    private static int getColorsInPallete(WinGDI.BITMAPINFOHEADER bih) {
-        return bih.biClrUsed != 0 ? bih.biClrUsed : 1 << bih.biBitCount;
     }
 }
@@ -20,9 +20,9 @@ import free.lucifer.jtwain.variable.TwainEnumeration;
 import free.lucifer.jtwain.variable.TwainArray;
 import free.lucifer.jtwain.variable.TwainOneValue;
 import free.lucifer.jtwain.variable.TwainContainer;
-import free.lucifer.jtwain.libs.Win32Twain;
 import free.lucifer.jtwain.exceptions.TwainCheckStatusException;
 import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.trace.TwainTraceFormat;
 import free.lucifer.jtwain.utils.TwainUtils;
 import com.sun.jna.Pointer;
 import java.util.ArrayList;
@@ -45,6 +45,12 @@ public class TwainCapability {
         this.container = get();
     }
 
+    TwainCapability(TwainSource source, int cap, TwainContainer container) {
+        this.source = source;
+        this.cap = cap;
+        this.container = container;
+    }
+
     public TwainCapability(TwainSource source, int cap, int mode) throws TwainException {
         this.source = source;
         this.cap = cap;
@@ -63,30 +69,53 @@ public class TwainCapability {
     }
 
     private TwainContainer get(int msg, int contype) throws TwainException {
-        Win32Twain.TW_CAPABILITY cp = new Win32Twain.TW_CAPABILITY();
+        TwainCapabilityCache cache = source.getCapabilityCache();
+        if (msg == Twain.MSG_RESET) {
+            cache.clear();
+            TwainCapabilitySnapshot.Entry e = read(source, cap, msg, contype);
+            return createContainer(cap, e.containerType, e.bytes);
+        }
+        TwainContainer cached = cache.get(cap, msg);
+        if (cached != null) {
+            return cached;
+        }
 
-        cp.Cap = (short) cap;
-        cp.ConType = (short) contype;
-        cp.Container = 0L;
+        TwainCapabilitySnapshot.Entry e = read(source, cap, msg, contype);
+        TwainContainer result = createContainer(cap, e.containerType, e.bytes);
+        cache.put(cap, msg, e.containerType, e.bytes);
+        return result;
+    }
 
+    /**
+     * Reads a container from the source, bypassing the cache.
+     */
+    static TwainCapabilitySnapshot.Entry read(TwainSource source, int cap, int msg, int contype) throws TwainException {
+        byte[] capability = new byte[16];
         TwainUtils.setINT16(capability, 0, cap);
         TwainUtils.setINT16(capability, 2, contype);
         TwainUtils.setINT64(capability, 4, 0);
 
-        System.out.print("TWAIN GET: ");
-        dumpHex(capability);
-        System.out.print(",");
         source.call(Twain.DG_CONTROL, Twain.DAT_CAPABILITY, (short) msg, capability);
 
         int containerType = TwainUtils.getINT16(capability, 2);
         Pointer containerPtr = new Pointer(TwainUtils.getINT64(capability, 4));
 
-        dumpHex(capability);
-        System.out.print(",");
         byte[] container = Twain.getContainer(containerType, containerPtr);
-        dumpHex(container);
-        System.out.println();
+        if (container == null) {
+            throw new TwainException("No container for capability 0x" + Integer.toHexString(cap));
+        }
+        return new TwainCapabilitySnapshot.Entry(msg, containerType, container);
+    }
+
+    /**
+     * Reads a container from the source, bypassing the cache.
+     */
+    static TwainContainer readContainer(TwainSource source, int cap, int msg) throws TwainException {
+        TwainCapabilitySnapshot.Entry e = read(source, cap, msg, -1);
+        return createContainer(cap, e.containerType, e.bytes);
+    }
 
+    static TwainContainer createContainer(int cap, int containerType, byte[] container) throws TwainException {
         switch (containerType) {
             case Twain.TWON_ARRAY:
                 return new TwainArray(cap, container);
@@ -138,14 +167,17 @@ public class TwainCapability {
         return container = set(container);
     }
 
+    /**
+     * @deprecated unused; {@link TwainTraceFormat#appendHex} formats the bytes
+     * without writing to System.out
+     */
+    @Deprecated
     public static void dumpHex(byte[] bytes) {
         if (null == bytes) {
             System.out.print("null");
             return;
         }
-        for (byte aByte : bytes) {
-            System.out.print(String.format("%02x", aByte));
-        }
+        System.out.print(TwainTraceFormat.appendHex(new StringBuilder(), bytes, 0, bytes.length));
     }
 
     public TwainContainer set(TwainContainer container) throws TwainException {
@@ -158,12 +190,8 @@ public class TwainCapability {
             TwainUtils.setINT16(capability, 0, cap);
             TwainUtils.setINT16(capability, 2, containerType);
             TwainUtils.setINT64(capability, 4, Pointer.nativeValue(containerHandle));
-            System.out.print("TWAIN SET: ");
-            dumpHex(capability);
-            System.out.print(",");
-            dumpHex(containerBytes);
-            System.out.println();
             source.call(Twain.DG_CONTROL, Twain.DAT_CAPABILITY, Twain.MSG_SET, capability);
+            source.getCapabilityCache().set(cap, container);
 
         } catch (TwainCheckStatusException e) {
             e.printStackTrace();
@@ -175,6 +203,13 @@ public class TwainCapability {
         return container;
     }
 
+    /**
+     * @return container last read or set
+     */
+    public TwainContainer getContainer() {
+        return container;
+    }
+
     public <T> T[] getItems() {
         return container.getItems();
     }
@@ -239,11 +274,11 @@ public class TwainCapability {
 
     public static TwainCapability[] getCapabilities(TwainSource source) throws TwainException {
         TwainCapability tc = source.getCapability(Twain.CAP_SUPPORTEDCAPS);
-        Object[] items = tc.getItems();
+        int[] items = tc.getContainer().getIntItems();
         List<TwainCapability> caps = new ArrayList<>();
 
         for (int i = 0; i < items.length; i++) {
-            int capid = ((Number) items[i]).intValue();
+            int capid = items[i];
             try {
                 switch (capid) {
                     case Twain.ICAP_COMPRESSION:
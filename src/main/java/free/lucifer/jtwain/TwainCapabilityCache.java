@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain;
+
+import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.variable.TwainContainer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Containers read from one source, kept until something may have changed
+ * them. A read fills the cache. Capabilities depend on each other in ways
+ * that vary by source (ICAP_PIXELTYPE limits ICAP_BITDEPTH, ICAP_UNITS
+ * rescales every measured capability, CAP_FEEDERENABLED changes the paper
+ * sizes, ...), so the whole cache is dropped on every MSG_SET and MSG_RESET,
+ * on TWRC_CHECKSTATUS and on every state change. A successful MSG_SET of a
+ * single value then writes it through as the MSG_GETCURRENT of its
+ * capability; MSG_GET keeps answering with the source's own container.
+ * <p>
+ * Entries are kept as container bytes, each read gets a fresh container that
+ * the caller is free to change.
+ *
+ * @author lucifer
+ */
+public class TwainCapabilityCache {
+
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final Set<Integer> volatiles = new HashSet<>();
+    private boolean enabled = true;
+    private long hits;
+    private long misses;
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Volatile capabilities, e.g. CAP_DEVICEONLINE or CAP_FEEDERLOADED when
+     * polled, are always read from the source.
+     */
+    public synchronized void setVolatile(int cap, boolean v) {
+        if (v) {
+            volatiles.add(cap);
+            invalidate(cap);
+        } else {
+            volatiles.remove(cap);
+        }
+    }
+
+    public synchronized boolean isVolatile(int cap) {
+        return volatiles.contains(cap);
+    }
+
+    synchronized TwainContainer get(int cap, int msg) throws TwainException {
+        if (!enabled || volatiles.contains(cap)) {
+            return null;
+        }
+        Entry e = entries.get(key(cap, msg));
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return TwainCapability.createContainer(cap, e.type, e.bytes.clone());
+    }
+
+    synchronized void put(int cap, int msg, int type, byte[] bytes) {
+        if (enabled && !volatiles.contains(cap)) {
+            entries.put(key(cap, msg), new Entry(type, bytes.clone()));
+        }
+    }
+
+    synchronized void set(int cap, TwainContainer container) {
+        clear();
+        if (container.getType() == Twain.TWON_ONEVALUE) {
+            put(cap, Twain.MSG_GETCURRENT, container.getType(), container.getBytes());
+        }
+    }
+
+    public synchronized void invalidate(int cap) {
+        entries.remove(key(cap, Twain.MSG_GET));
+        entries.remove(key(cap, Twain.MSG_GETCURRENT));
+        entries.remove(key(cap, Twain.MSG_GETDEFAULT));
+        entries.remove(key(cap, Twain.MSG_QUERYSUPPORT));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void resetMetrics() {
+        hits = 0;
+        misses = 0;
+    }
+
+    private static class Entry {
+
+        final int type;
+        final byte[] bytes;
+
+        Entry(int type, byte[] bytes) {
+            this.type = type;
+            this.bytes = bytes;
+        }
+    }
+
+    private static Integer key(int cap, int msg) {
+        return ((cap & 0xFFFF) << 16) | (msg & 0xFFFF);
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain;
+
+import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.variable.TwainContainer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Capability set of one source: its identity, the supported capabilities and
+ * for each the MSG_QUERYSUPPORT flags and the raw MSG_GET, MSG_GETCURRENT and
+ * MSG_GETDEFAULT containers. Captured once, a snapshot is saved in a compact
+ * binary form and later answers read-only queries offline, warms the
+ * {@link TwainCapabilityCache} of the same device without a single DSM call,
+ * or is applied back setting only the values that differ.
+ *
+ * @author lucifer
+ */
+public class TwainCapabilitySnapshot {
+
+    private static final int MAGIC = 0x54574353;
+    private static final int VERSION = 1;
+    private static final int MAX_CONTAINER = 1 << 22;
+
+    private static final int[] MESSAGES = {
+        Twain.MSG_QUERYSUPPORT, Twain.MSG_GET, Twain.MSG_GETCURRENT, Twain.MSG_GETDEFAULT
+    };
+
+    private String manufacturer;
+    private String productFamily;
+    private String productName;
+    private int protocolMajor;
+    private int protocolMinor;
+    private final Map<Integer, List<Entry>> caps = new LinkedHashMap<>();
+
+    private TwainCapabilitySnapshot() {
+    }
+
+    /**
+     * Reads every capability listed in CAP_SUPPORTEDCAPS. Use in state 4;
+     * messages a capability does not answer are left out.
+     */
+    public static TwainCapabilitySnapshot capture(TwainSource source) throws TwainException {
+        TwainCapabilitySnapshot s = new TwainCapabilitySnapshot();
+        s.manufacturer = source.getManufacturer();
+        s.productFamily = source.getProductFamily();
+        s.productName = source.getProductName();
+        s.protocolMajor = source.getProtocolMajor();
+        s.protocolMinor = source.getProtocolMinor();
+
+        Entry supported = TwainCapability.read(source, Twain.CAP_SUPPORTEDCAPS, Twain.MSG_GET, -1);
+        s.add(Twain.CAP_SUPPORTEDCAPS, supported);
+        for (int cap : TwainCapability.createContainer(Twain.CAP_SUPPORTEDCAPS, supported.containerType, supported.bytes).getIntItems()) {
+            for (int msg : MESSAGES) {
+                try {
+                    s.add(cap, TwainCapability.read(source, cap, msg, msg == Twain.MSG_QUERYSUPPORT ? Twain.TWON_ONEVALUE : -1));
+                } catch (TwainException e) {
+                }
+            }
+        }
+        return s;
+    }
+
+    public static TwainCapabilitySnapshot read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            return read(in);
+        }
+    }
+
+    public static TwainCapabilitySnapshot read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readUnsignedShort() != VERSION) {
+            throw new IOException("Not a capability snapshot");
+        }
+        TwainCapabilitySnapshot s = new TwainCapabilitySnapshot();
+        s.manufacturer = in.readUTF();
+        s.productFamily = in.readUTF();
+        s.productName = in.readUTF();
+        s.protocolMajor = in.readUnsignedShort();
+        s.protocolMinor = in.readUnsignedShort();
+        int count = in.readInt();
+        if (count < 0 || count > 0x10000) {
+            throw new IOException("Corrupt capability snapshot: " + count + " capabilities");
+        }
+        for (int i = 0; i < count; i++) {
+            int cap = in.readUnsignedShort();
+            int entries = in.readUnsignedByte();
+            for (int j = 0; j < entries; j++) {
+                int msg = in.readUnsignedShort();
+                int containerType = in.readUnsignedByte();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_CONTAINER) {
+                    throw new IOException("Corrupt capability snapshot: container of " + length + " bytes");
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                s.add(cap, new Entry(msg, containerType, bytes));
+            }
+        }
+        return s;
+    }
+
+    public void write(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            write(out);
+        }
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(manufacturer);
+        out.writeUTF(productFamily);
+        out.writeUTF(productName);
+        out.writeShort(protocolMajor);
+        out.writeShort(protocolMinor);
+        out.writeInt(caps.size());
+        for (Map.Entry<Integer, List<Entry>> c : caps.entrySet()) {
+            out.writeShort(c.getKey());
+            out.writeByte(c.getValue().size());
+            for (Entry e : c.getValue()) {
+                out.writeShort(e.msg);
+                out.writeByte(e.containerType);
+                out.writeInt(e.bytes.length);
+                out.write(e.bytes);
+            }
+        }
+        out.flush();
+    }
+
+    public String getManufacturer() {
+        return manufacturer;
+    }
+
+    public String getProductFamily() {
+        return productFamily;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public int getProtocolMajor() {
+        return protocolMajor;
+    }
+
+    public int getProtocolMinor() {
+        return protocolMinor;
+    }
+
+    /**
+     * @return true when the snapshot was taken from the same kind of device
+     */
+    public boolean matches(TwainSource source) {
+        return manufacturer.equals(source.getManufacturer())
+                && productFamily.equals(source.getProductFamily())
+                && productName.equals(source.getProductName());
+    }
+
+    /**
+     * @return capabilities in the order captured, CAP_SUPPORTEDCAPS first
+     */
+    public int[] getCapabilities() {
+        int[] list = new int[caps.size()];
+        int i = 0;
+        for (Integer cap : caps.keySet()) {
+            list[i++] = cap;
+        }
+        return list;
+    }
+
+    /**
+     * @return MSG_QUERYSUPPORT flags (TWQC_*), 0 when the source did not
+     * report them
+     */
+    public int getSupport(int cap) throws TwainException {
+        TwainContainer c = getContainer(cap, Twain.MSG_QUERYSUPPORT);
+        return c == null ? 0 : c.intValue();
+    }
+
+    /**
+     * @param msg MSG_GET, MSG_GETCURRENT, MSG_GETDEFAULT or MSG_QUERYSUPPORT
+     * @return a new container, or null when it was not captured
+     */
+    public TwainContainer getContainer(int cap, int msg) throws TwainException {
+        Entry e = find(cap, msg);
+        return e == null ? null : TwainCapability.createContainer(cap, e.containerType, e.bytes.clone());
+    }
+
+    /**
+     * Fills the capability cache of the source with the captured containers,
+     * so reads are answered without calling the source until the cache is
+     * invalidated. Use in state 4, after the source is opened, on a device
+     * known to be in the captured state; the next MSG_SET drops the cache.
+     *
+     * @return containers put in the cache
+     */
+    public int warm(TwainSource source) throws TwainException {
+        if (!matches(source)) {
+            throw new TwainException(getClass().getName() + ".warm:\n\tSnapshot of " + productName + " does not match " + source.getProductName());
+        }
+        TwainCapabilityCache cache = source.getCapabilityCache();
+        int n = 0;
+        for (Map.Entry<Integer, List<Entry>> c : caps.entrySet()) {
+            for (Entry e : c.getValue()) {
+                cache.put(c.getKey(), e.msg, e.containerType, e.bytes);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Sets the captured current values on the source, in dependency order
+     * for the capabilities others depend on and in capture order for the
+     * rest. Capabilities whose captured MSG_QUERYSUPPORT lacks TWQC_SET are
+     * reported SKIPPED; without captured support flags the set is tried and a
+     * refusal reported FAILED. Lists and non numeric values are left out. Each
+     * value is compared
+     * with the one read live from the source, not from the cache, so only
+     * the differences are sent, also after {@link #warm(TwainSource)}; every
+     * set drops the cache. Use in state 4.
+     *
+     * @return outcome per capability tried
+     */
+    public TwainScanProfile.Report apply(TwainSource source) throws TwainException {
+        if (!matches(source)) {
+            throw new TwainException(getClass().getName() + ".apply:\n\tSnapshot of " + productName + " does not match " + source.getProductName());
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int cap : TwainScanProfile.DEPENDENCY_ORDER) {
+            if (caps.containsKey(cap)) {
+                order.add(cap);
+            }
+        }
+        for (Integer cap : caps.keySet()) {
+            if (!order.contains(cap)) {
+                order.add(cap);
+            }
+        }
+
+        TwainScanProfile.Report report = new TwainScanProfile.Report();
+        for (int cap : order) {
+            if (cap == Twain.CAP_SUPPORTEDCAPS) {
+                continue;
+            }
+            TwainContainer current = getContainer(cap, Twain.MSG_GETCURRENT);
+            if (current == null) {
+                current = getContainer(cap, Twain.MSG_GET);
+            }
+            if (current == null || current.getType() == Twain.TWON_ARRAY || current.getItemType() > Twain.TWTY_FIX32) {
+                continue;
+            }
+            TwainContainer support = getContainer(cap, Twain.MSG_QUERYSUPPORT);
+            if (support != null && (support.intValue() & Twain.TWQC_SET) == 0) {
+                report.add(new TwainScanProfile.Result(cap, TwainScanProfile.Outcome.SKIPPED, current.getCurrentValue(), null, "TWQC_SET not reported"));
+                continue;
+            }
+            report.add(TwainScanProfile.set(source, cap, current.getCurrentValue()));
+        }
+        return report;
+    }
+
+    /**
+     * @return captured containers per capability, in capture order
+     */
+    Map<Integer, List<Entry>> getEntries() {
+        return Collections.unmodifiableMap(caps);
+    }
+
+    private void add(int cap, Entry e) {
+        List<Entry> list = caps.get(cap);
+        if (list == null) {
+            list = new ArrayList<>(MESSAGES.length);
+            caps.put(cap, list);
+        }
+        list.add(e);
+    }
+
+    private Entry find(int cap, int msg) {
+        List<Entry> list = caps.get(cap);
+        if (list != null) {
+            for (Entry e : list) {
+                if (e.msg == msg) {
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    static class Entry {
+
+        final int msg;
+        final int containerType;
+        final byte[] bytes;
+
+        Entry(int msg, int containerType, byte[] bytes) {
+            this.msg = msg;
+            this.containerType = containerType;
+            this.bytes = bytes;
+        }
+    }
+
+}
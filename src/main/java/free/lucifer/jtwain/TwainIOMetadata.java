@@ -33,14 +33,33 @@ public class TwainIOMetadata {
     static public Type MEMORY = new Type("MEMORY");
     static public Type NEGOTIATE = new Type("NEGOTIATE");
     static public Type STATECHANGE = new Type("STATECHANGE");
+    static public Type WRITTEN = new Type("WRITTEN");
+    static public Type IMAGEINFO = new Type("IMAGEINFO");
+    static public Type PAGE = new Type("PAGE");
+    static public Type BATCH = new Type("BATCH");
 
     private int laststate = 0, state = 0;
     private boolean cancel = false;
     private BufferedImage image = null;
+    private TwainPage page = null;
     private File file = null;
     private String info = "";
     private Exception exception = null;
 
+    public TwainIOMetadata() {
+    }
+
+    /**
+     * Metadata of one event fired off the message pump thread, carrying the
+     * state and source of the shared metadata at that time.
+     */
+    TwainIOMetadata(TwainIOMetadata shared) {
+        this.laststate = shared.laststate;
+        this.state = shared.state;
+        this.source = shared.source;
+        this.imageInfo = shared.imageInfo;
+    }
+
     public void setState(int s) {
         laststate = state;
         state = s;
@@ -60,15 +79,30 @@ public class TwainIOMetadata {
 
     public void setImage(BufferedImage image) {
         this.image = image;
+        this.page = null;
         this.file = null;
     }
 
     public BufferedImage getImage() {
+        if (image == null && page != null) {
+            image = page.getImage();
+        }
         return image;
     }
 
+    public void setPage(TwainPage page) {
+        this.image = null;
+        this.page = page;
+        this.file = null;
+    }
+
+    public TwainPage getPage() {
+        return page;
+    }
+
     public void setFile(File file) {
         this.image = null;
+        this.page = null;
         this.file = file;
     }
 
@@ -137,6 +171,33 @@ public class TwainIOMetadata {
         return memory;
     }
 
+    private int pageCount = 0;
+
+    public void setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * @return pages in the batch file, for {@link #PAGE} and {@link #BATCH}
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    private TwainImageInfo imageInfo = null;
+
+    public void setImageInfo(TwainImageInfo imageInfo) {
+        this.imageInfo = imageInfo;
+    }
+
+    /**
+     * @return image info of the page being transferred, set before its first
+     * byte arrives
+     */
+    public TwainImageInfo getImageInfo() {
+        return imageInfo;
+    }
+
     public boolean isFinished() {
         return (getState() == 3) && (getLastState() == 4);
     }
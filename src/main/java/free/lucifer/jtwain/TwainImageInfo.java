@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain;
+
+import static free.lucifer.jtwain.Twain.DAT_IMAGEINFO;
+import static free.lucifer.jtwain.Twain.DG_IMAGE;
+import static free.lucifer.jtwain.Twain.MSG_GET;
+import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.utils.TwainUtils;
+
+/**
+ * TW_IMAGEINFO of the pending transfer, available from state 6.
+ *
+ * @author lucifer
+ */
+public class TwainImageInfo {
+
+    TwainSource source;
+    byte[] buf = new byte[42];
+
+    public TwainImageInfo(TwainSource source) {
+        this.source = source;
+    }
+
+    public void get() throws TwainException {
+        source.call(DG_IMAGE, DAT_IMAGEINFO, MSG_GET, buf);
+    }
+
+    public double getXResolution() {
+        return TwainUtils.getFIX32(buf, 0);
+    }
+
+    public double getYResolution() {
+        return TwainUtils.getFIX32(buf, 4);
+    }
+
+    public int getImageWidth() {
+        return TwainUtils.getINT32(buf, 8);
+    }
+
+    /**
+     * @return rows, or -1 when the source does not know the length in
+     * advance (ICAP_UNDEFINEDIMAGESIZE)
+     */
+    public int getImageLength() {
+        return TwainUtils.getINT32(buf, 12);
+    }
+
+    public int getSamplesPerPixel() {
+        return TwainUtils.getINT16(buf, 16);
+    }
+
+    public int getBitsPerSample(int sample) {
+        return TwainUtils.getINT16(buf, 18 + sample * 2);
+    }
+
+    public int getBitsPerPixel() {
+        return TwainUtils.getINT16(buf, 34);
+    }
+
+    public boolean isPlanar() {
+        return TwainUtils.getINT16(buf, 36) != 0;
+    }
+
+    public int getPixelType() {
+        return TwainUtils.getINT16(buf, 38);
+    }
+
+    public int getCompression() {
+        return TwainUtils.getINT16(buf, 40) & 0xFFFF;
+    }
+
+    /**
+     * @return packed bytes of one uncompressed row
+     */
+    public int getBytesPerRow() {
+        return (int) (((long) getImageWidth() * getBitsPerPixel() + 7) >> 3);
+    }
+
+    /**
+     * @return bytes of the uncompressed page with rows padded to
+     * {@code alignment} bytes, or -1 when the length is undefined or the data
+     * is compressed
+     */
+    public long getImageSize(int alignment) {
+        if (getImageLength() < 0 || getCompression() != Twain.TWCP_NONE) {
+            return -1;
+        }
+        long row = (getBytesPerRow() + alignment - 1) / alignment * alignment;
+        return row * getImageLength();
+    }
+
+}
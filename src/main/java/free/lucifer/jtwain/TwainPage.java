@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain;
+
+import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.image.TwainDibDecoder;
+import free.lucifer.jtwain.image.TwainDibWriter;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Page received by a native transfer. Holds a copy of the packed DIB (header,
+ * palette and pixels) and decodes it only when {@link #getImage()} is first
+ * called.
+ *
+ * @author lucifer
+ */
+public class TwainPage {
+
+    private final byte[] dib;
+    private final TwainDibDecoder decoder;
+    private BufferedImage image;
+
+    public TwainPage(byte[] dib) throws TwainException {
+        this.dib = dib;
+        this.decoder = new TwainDibDecoder(ByteBuffer.wrap(dib));
+        decoder.checkFormat();
+    }
+
+    public byte[] getDib() {
+        return dib;
+    }
+
+    public ByteBuffer getDibBuffer() {
+        return ByteBuffer.wrap(dib).asReadOnlyBuffer();
+    }
+
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    public int getBitCount() {
+        return decoder.getBitCount();
+    }
+
+    public TwainDibDecoder getDecoder() {
+        return decoder;
+    }
+
+    public void write(File file, int format) throws IOException, TwainException {
+        new TwainDibWriter(ByteBuffer.wrap(dib)).write(file, format);
+    }
+
+    public synchronized boolean isDecoded() {
+        return image != null;
+    }
+
+    public synchronized BufferedImage getImage() {
+        if (image == null) {
+            try {
+                image = decoder.decode(ByteBuffer.wrap(dib));
+            } catch (TwainException e) {
+                throw new IllegalStateException(getClass().getName() + ".getImage:\n\t" + e.getMessage(), e);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain;
+
+import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.variable.TwainContainer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings applied to a source in one pass by
+ * {@link TwainSource#apply(TwainScanProfile)}. Values never set, reported as
+ * null by the getters, are left as the source has them. Capabilities are set
+ * in TWAIN dependency order, units first as they scale resolution and region,
+ * pixel type before bit depth and compression, feeder before duplex, and the
+ * region last. A value the source already has is not set again.
+ *
+ * @author lucifer
+ */
+public class TwainScanProfile {
+
+    /**
+     * Capability id reported for the region of interest, set through
+     * DAT_IMAGELAYOUT.
+     */
+    public static final int LAYOUT = -1;
+
+    private static final double EPSILON = 1.0 / 65536;
+
+    /**
+     * Capabilities others depend on, in the order they have to be set.
+     */
+    static final int[] DEPENDENCY_ORDER = {
+        Twain.ICAP_UNITS,
+        Twain.ICAP_PIXELTYPE,
+        Twain.ICAP_BITDEPTH,
+        Twain.ICAP_XRESOLUTION,
+        Twain.ICAP_YRESOLUTION,
+        Twain.ICAP_COMPRESSION,
+        Twain.CAP_FEEDERENABLED,
+        Twain.CAP_DUPLEXENABLED
+    };
+
+    private final Map<Integer, Object> values = new HashMap<>();
+    private double[] region;
+
+    public Integer getUnits() {
+        return (Integer) values.get(Twain.ICAP_UNITS);
+    }
+
+    /**
+     * @param units TWUN_* value resolution and region are given in
+     */
+    public void setUnits(int units) {
+        values.put(Twain.ICAP_UNITS, units);
+    }
+
+    public Double getXResolution() {
+        return (Double) values.get(Twain.ICAP_XRESOLUTION);
+    }
+
+    public Double getYResolution() {
+        return (Double) values.get(Twain.ICAP_YRESOLUTION);
+    }
+
+    public void setResolution(double resolution) {
+        setResolution(resolution, resolution);
+    }
+
+    public void setResolution(double xResolution, double yResolution) {
+        values.put(Twain.ICAP_XRESOLUTION, xResolution);
+        values.put(Twain.ICAP_YRESOLUTION, yResolution);
+    }
+
+    public Integer getPixelType() {
+        return (Integer) values.get(Twain.ICAP_PIXELTYPE);
+    }
+
+    /**
+     * @param pixelType TWPT_* value
+     */
+    public void setPixelType(int pixelType) {
+        values.put(Twain.ICAP_PIXELTYPE, pixelType);
+    }
+
+    public Integer getBitDepth() {
+        return (Integer) values.get(Twain.ICAP_BITDEPTH);
+    }
+
+    public void setBitDepth(int bitDepth) {
+        values.put(Twain.ICAP_BITDEPTH, bitDepth);
+    }
+
+    public Integer getCompression() {
+        return (Integer) values.get(Twain.ICAP_COMPRESSION);
+    }
+
+    /**
+     * @param compression TWCP_* value
+     */
+    public void setCompression(int compression) {
+        values.put(Twain.ICAP_COMPRESSION, compression);
+    }
+
+    public Boolean getFeederEnabled() {
+        return (Boolean) values.get(Twain.CAP_FEEDERENABLED);
+    }
+
+    public void setFeederEnabled(boolean feederEnabled) {
+        values.put(Twain.CAP_FEEDERENABLED, feederEnabled);
+    }
+
+    public Boolean getDuplexEnabled() {
+        return (Boolean) values.get(Twain.CAP_DUPLEXENABLED);
+    }
+
+    public void setDuplexEnabled(boolean duplexEnabled) {
+        values.put(Twain.CAP_DUPLEXENABLED, duplexEnabled);
+    }
+
+    /**
+     * @return left, top, right, bottom in the profile units, or null
+     */
+    public double[] getRegion() {
+        return region == null ? null : region.clone();
+    }
+
+    public void setRegion(double left, double top, double right, double bottom) {
+        region = new double[]{left, top, right, bottom};
+    }
+
+    public void clearRegion() {
+        region = null;
+    }
+
+    Report apply(TwainSource source) {
+        Report report = new Report();
+        for (int cap : DEPENDENCY_ORDER) {
+            if (values.containsKey(cap)) {
+                report.add(set(source, cap, values.get(cap)));
+            }
+        }
+        if (region != null) {
+            report.add(setRegion(source));
+        }
+        return report;
+    }
+
+    /**
+     * Sets one value unless the source already has it. The current value is
+     * read from the source before and after, never from the capability
+     * cache, so a value changed by an earlier set is seen and an adjustment
+     * by the source is reported.
+     */
+    static Result set(TwainSource source, int cap, Object value) {
+        try {
+            TwainContainer live = TwainCapability.readContainer(source, cap, Twain.MSG_GETCURRENT);
+            Object current = live.getCurrentValue();
+            if (same(current, value)) {
+                return new Result(cap, Outcome.UNCHANGED, value, current, null);
+            }
+            new TwainCapability(source, cap, live).setCurrentValue(value);
+            Object actual = TwainCapability.readContainer(source, cap, Twain.MSG_GETCURRENT).getCurrentValue();
+            return new Result(cap, same(actual, value) ? Outcome.SET : Outcome.ADJUSTED, value, actual, null);
+        } catch (TwainException e) {
+            return new Result(cap, Outcome.FAILED, value, null, e.getMessage());
+        }
+    }
+
+    private Result setRegion(TwainSource source) {
+        double[] requested = region.clone();
+        try {
+            TwainImageLayout til = new TwainImageLayout(source);
+            til.get();
+            if (same(frame(til), requested)) {
+                return new Result(LAYOUT, Outcome.UNCHANGED, requested, requested, null);
+            }
+            til.setLeft(requested[0]);
+            til.setTop(requested[1]);
+            til.setRight(requested[2]);
+            til.setBottom(requested[3]);
+            til.set();
+            til.get();
+            double[] actual = frame(til);
+            return new Result(LAYOUT, same(actual, requested) ? Outcome.SET : Outcome.ADJUSTED, requested, actual, null);
+        } catch (TwainException e) {
+            return new Result(LAYOUT, Outcome.FAILED, requested, null, e.getMessage());
+        }
+    }
+
+    private static double[] frame(TwainImageLayout til) {
+        return new double[]{til.getLeft(), til.getTop(), til.getRight(), til.getBottom()};
+    }
+
+    private static boolean same(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.abs(a[i] - b[i]) > EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean same(Object current, Object value) {
+        if (current instanceof Number && value instanceof Number) {
+            return Math.abs(((Number) current).doubleValue() - ((Number) value).doubleValue()) <= EPSILON;
+        }
+        if (current instanceof Boolean && value instanceof Boolean) {
+            return current.equals(value);
+        }
+        if (current instanceof Number && value instanceof Boolean) {
+            return (((Number) current).intValue() != 0) == (Boolean) value;
+        }
+        return false;
+    }
+
+    public enum Outcome {
+        /**
+         * The source already had the value, nothing was sent.
+         */
+        UNCHANGED,
+        /**
+         * Set as requested.
+         */
+        SET,
+        /**
+         * Accepted, but the source settled on a different value.
+         */
+        ADJUSTED,
+        /**
+         * Rejected or not supported, see {@link Result#getMessage()}.
+         */
+        FAILED,
+        /**
+         * Not sent, the source reported the capability as not settable.
+         */
+        SKIPPED
+    }
+
+    public static class Result {
+
+        private final int cap;
+        private final Outcome outcome;
+        private final Object requested;
+        private final Object actual;
+        private final String message;
+
+        Result(int cap, Outcome outcome, Object requested, Object actual, String message) {
+            this.cap = cap;
+            this.outcome = outcome;
+            this.requested = requested;
+            this.actual = actual;
+            this.message = message;
+        }
+
+        /**
+         * @return capability id, or {@link TwainScanProfile#LAYOUT}
+         */
+        public int getCapability() {
+            return cap;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public Object getRequested() {
+            return requested;
+        }
+
+        /**
+         * @return current value after the pass, null when it failed or was
+         * skipped
+         */
+        public Object getActual() {
+            return actual;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getName() {
+            if (cap == LAYOUT) {
+                return "DAT_IMAGELAYOUT";
+            }
+            String name = Twain.getMapCapCodeToName().get(cap);
+            return name != null ? name : "0x" + Integer.toHexString(cap);
+        }
+
+        @Override
+        public String toString() {
+            return getName() + ": " + outcome + (message != null ? " (" + message + ")" : "");
+        }
+    }
+
+    public static class Report {
+
+        private final List<Result> results = new ArrayList<>();
+
+        void add(Result result) {
+            results.add(result);
+        }
+
+        /**
+         * @return one result per value in the profile, in the order applied
+         */
+        public List<Result> getResults() {
+            return Collections.unmodifiableList(results);
+        }
+
+        public Result get(int cap) {
+            for (Result r : results) {
+                if (r.getCapability() == cap) {
+                    return r;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return true when no value failed
+         */
+        public boolean isSuccessful() {
+            for (Result r : results) {
+                if (r.getOutcome() == Outcome.FAILED) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return results.toString();
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  *
@@ -30,7 +31,8 @@ import java.util.List;
 public class TwainScanner {
 
     private TwainIOMetadata metadata;
-    private List<TwainListener> listeners = new ArrayList<>();
+    private List<TwainListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Thread pump;
 
     public TwainScanner() {
         metadata = new TwainIOMetadata();
@@ -79,32 +81,92 @@ public class TwainScanner {
     }
 
     void setImage(BufferedImage image) {
+        TwainIOMetadata event = getEventMetadata();
         try {
-            metadata.setImage(image);
-            fireListenerUpdate(metadata.ACQUIRED);
+            event.setImage(image);
+            fireListenerUpdate(TwainIOMetadata.ACQUIRED, event);
         } catch (Exception e) {
-            metadata.setException(e);
-            fireListenerUpdate(metadata.EXCEPTION);
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
+        }
+    }
+
+    void setPage(TwainPage page) {
+        TwainIOMetadata event = getEventMetadata();
+        try {
+            event.setPage(page);
+            fireListenerUpdate(TwainIOMetadata.ACQUIRED, event);
+        } catch (Exception e) {
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
         }
     }
 
     void setImage(File file) {
+        TwainIOMetadata event = getEventMetadata();
         try {
-            metadata.setFile(file);
-            fireListenerUpdate(metadata.FILE);
+            event.setFile(file);
+            fireListenerUpdate(TwainIOMetadata.FILE, event);
         } catch (Exception e) {
-            metadata.setException(e);
-            fireListenerUpdate(metadata.EXCEPTION);
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
+        }
+    }
+
+    void setWritten(File file) {
+        TwainIOMetadata event = getEventMetadata();
+        try {
+            event.setFile(file);
+            fireListenerUpdate(TwainIOMetadata.WRITTEN, event);
+        } catch (Exception e) {
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
+        }
+    }
+
+    void setFilePage(File file, int pages) {
+        TwainIOMetadata event = getEventMetadata();
+        try {
+            event.setFile(file);
+            event.setPageCount(pages);
+            fireListenerUpdate(TwainIOMetadata.PAGE, event);
+        } catch (Exception e) {
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
+        }
+    }
+
+    void setFileBatch(File file, int pages) {
+        TwainIOMetadata event = getEventMetadata();
+        try {
+            event.setFile(file);
+            event.setPageCount(pages);
+            fireListenerUpdate(TwainIOMetadata.BATCH, event);
+        } catch (Exception e) {
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
         }
     }
 
     void setImageBuffer(TwainMemoryTransfer.Info info) {
+        TwainIOMetadata event = getEventMetadata();
         try {
-            ((TwainIOMetadata) metadata).setMemory(info);
-            fireListenerUpdate(metadata.MEMORY);
+            event.setMemory(info);
+            fireListenerUpdate(TwainIOMetadata.MEMORY, event);
         } catch (Exception e) {
-            metadata.setException(e);
-            fireListenerUpdate(metadata.EXCEPTION);
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
+        }
+    }
+
+    void setImageInfo(TwainImageInfo imageInfo) {
+        TwainIOMetadata event = getEventMetadata();
+        try {
+            event.setImageInfo(imageInfo);
+            fireListenerUpdate(TwainIOMetadata.IMAGEINFO, event);
+        } catch (Exception e) {
+            event.setException(e);
+            fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
         }
     }
 
@@ -122,20 +184,31 @@ public class TwainScanner {
     }
 
     void setState(TwainSource source) {
+        pump = Thread.currentThread();
         metadata.setState(source.getState());
         ((TwainIOMetadata) metadata).setSource(source);
         fireListenerUpdate(metadata.STATECHANGE);
     }
 
     void signalInfo(String msg, int val) {
-        metadata.setInfo(msg + " [0x" + Integer.toHexString(val) + "]");
-        fireListenerUpdate(metadata.INFO);
+        TwainIOMetadata event = getEventMetadata();
+        event.setInfo(msg + " [0x" + Integer.toHexString(val) + "]");
+        fireListenerUpdate(TwainIOMetadata.INFO, event);
     }
 
     void signalException(String msg) {
         Exception e = new TwainException(getClass().getName() + ".setException:\n    " + msg);
-        metadata.setException(e);
-        fireListenerUpdate(metadata.EXCEPTION);
+        TwainIOMetadata event = getEventMetadata();
+        event.setException(e);
+        fireListenerUpdate(TwainIOMetadata.EXCEPTION, event);
+    }
+
+    /**
+     * @return the shared metadata on the thread running the source, a copy of
+     * it for events fired by strip or completion workers
+     */
+    private TwainIOMetadata getEventMetadata() {
+        return Thread.currentThread() == pump ? metadata : new TwainIOMetadata(metadata);
     }
 
     public TwainIOMetadata getMetadata() {
@@ -160,8 +233,11 @@ public class TwainScanner {
     }
 
     public void fireListenerUpdate(TwainIOMetadata.Type type) {
-        for (Iterator<TwainListener> e = new ArrayList<>(listeners).iterator(); e.hasNext();) {
-            TwainListener listener = (TwainListener) e.next();
+        fireListenerUpdate(type, metadata);
+    }
+
+    void fireListenerUpdate(TwainIOMetadata.Type type, TwainIOMetadata metadata) {
+        for (TwainListener listener : listeners) {
             listener.update(type, metadata);
         }
     }
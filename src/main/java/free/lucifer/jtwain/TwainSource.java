@@ -15,6 +15,10 @@
  */
 package free.lucifer.jtwain;
 
+import free.lucifer.jtwain.transfer.TwainBufferSizer;
+import free.lucifer.jtwain.transfer.TwainCompletionQueue;
+import free.lucifer.jtwain.transfer.TwainFileTransferNamer;
+import free.lucifer.jtwain.transfer.TwainStripQueue;
 import free.lucifer.jtwain.transfer.TwainTransfer;
 import free.lucifer.jtwain.exceptions.TwainException;
 import free.lucifer.jtwain.libs.Win32Twain;
@@ -48,6 +52,13 @@ public class TwainSource extends TwainIdentity {
 
     private boolean userCancelled;
     private TwainTransferFactory transferFactory;
+    private TwainBufferSizer.Mode bufferMode = TwainBufferSizer.Mode.PREFERRED;
+    private int bufferSize = -1;
+    private TwainStripQueue stripQueue;
+    private boolean assembleMemoryPages;
+    private TwainFileTransferNamer fileNamer;
+    private TwainCompletionQueue completionQueue;
+    private final TwainCapabilityCache capabilityCache = new TwainCapabilityCache();
     private Semaphore twSemaphore = null;
     private boolean twHaveImage = false;
 
@@ -111,6 +122,7 @@ public class TwainSource extends TwainIdentity {
 
     public void setState(int s) {
         state = s;
+        capabilityCache.clear();
         Twain.signalStateChange(this);
     }
 
@@ -168,6 +180,7 @@ public class TwainSource extends TwainIdentity {
                     throw new TwainException(getClass().getName() + ".call error: " + TwainSourceManager.INFO[cc]);
                 }
             case Twain.TWRC_CHECKSTATUS:
+                capabilityCache.clear();
                 throw new TwainCheckStatusException();
             case Twain.TWRC_CANCEL:
                 throw new TwainCancelException();
@@ -192,6 +205,14 @@ public class TwainSource extends TwainIdentity {
         return TwainCapability.getCapabilities(this);
     }
 
+    /**
+     * @return containers read from this source, see
+     * {@link TwainCapabilityCache}
+     */
+    public TwainCapabilityCache getCapabilityCache() {
+        return capabilityCache;
+    }
+
     public TwainCapability getCapability(int cap) throws TwainException {              // use only in state 4
         return new TwainCapability(this, cap);
     }
@@ -211,6 +232,88 @@ public class TwainSource extends TwainIdentity {
         this.transferFactory = transferFactory;
     }
 
+    public TwainBufferSizer.Mode getBufferMode() {
+        return bufferMode;
+    }
+
+    /**
+     * Buffer size policy for memory transfers.
+     */
+    public void setBufferMode(TwainBufferSizer.Mode bufferMode) {
+        if (bufferMode == null) {
+            throw new IllegalArgumentException(getClass().getName() + ".setBufferMode\n\tBuffer mode cannot be null.");
+        }
+        this.bufferMode = bufferMode;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Memory transfer buffer size for {@link TwainBufferSizer.Mode#FIXED}.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public TwainStripQueue getStripQueue() {
+        return stripQueue;
+    }
+
+    /**
+     * Memory transfer strips go through the queue to a worker thread instead
+     * of reaching listeners on the message pump thread. Null, the default,
+     * delivers them synchronously.
+     */
+    public void setStripQueue(TwainStripQueue stripQueue) {
+        this.stripQueue = stripQueue;
+    }
+
+    public boolean isAssembleMemoryPages() {
+        return assembleMemoryPages;
+    }
+
+    /**
+     * Memory transfers also build each page from its strips and deliver it
+     * as an image after the per strip events. Off by default.
+     */
+    public void setAssembleMemoryPages(boolean assemble) {
+        this.assembleMemoryPages = assemble;
+    }
+
+    public TwainFileTransferNamer getFileNamer() {
+        return fileNamer;
+    }
+
+    /**
+     * Names the pages of file, native file and memory file transfers. Null,
+     * the default, keeps each transfer's own temporary files.
+     */
+    public void setFileNamer(TwainFileTransferNamer fileNamer) {
+        this.fileNamer = fileNamer;
+    }
+
+    public TwainCompletionQueue getCompletionQueue() {
+        return completionQueue;
+    }
+
+    /**
+     * File transfer pages are landed and handed to listeners on the queue's
+     * workers after the transfer has ended. Null, the default, completes them
+     * on the message pump thread before the next page.
+     */
+    public void setCompletionQueue(TwainCompletionQueue completionQueue) {
+        this.completionQueue = completionQueue;
+    }
+
+    /**
+     * @return key the adaptive buffer sizes are remembered under
+     */
+    public String getDeviceKey() {
+        return getManufacturer() + "/" + getProductFamily() + "/" + getProductName();
+    }
+
     public void setShowUI(boolean enable) {
         showUI = (enable) ? 1 : 0;
     }
@@ -267,6 +370,20 @@ public class TwainSource extends TwainIdentity {
         }
     }
 
+    /**
+     * Sets every value of the profile in one pass, in capability dependency
+     * order. Use in state 4.
+     *
+     * @return outcome per capability, failures do not stop the pass
+     */
+    public TwainScanProfile.Report apply(TwainScanProfile profile) {
+        return profile.apply(this);
+    }
+
+    public TwainCapabilitySnapshot captureCapabilities() throws TwainException {     // use only in state 4
+        return TwainCapabilitySnapshot.capture(this);
+    }
+
     public void setShowUserInterface(boolean show) throws TwainException {
         setShowUI(show);
     }
@@ -410,12 +527,8 @@ public class TwainSource extends TwainIdentity {
                     setState(7);
                     tt.finish();
                     call(Twain.DG_CONTROL, Twain.DAT_PENDINGXFERS, Twain.MSG_ENDXFER, pendingXfers);
-                    if (TwainUtils.getINT16(pendingXfers, 0) == 0) {
-                        setState(5);
-                    }
                 } catch (TwainUserCancelException tuce) {
                     call(Twain.DG_CONTROL, Twain.DAT_PENDINGXFERS, Twain.MSG_RESET, pendingXfers);
-                    setState(5);
                 } catch (TwainCancelException trec) {
                     tt.cancel();
 
@@ -423,7 +536,6 @@ public class TwainSource extends TwainIdentity {
                     if (TwainUtils.getINT16(pendingXfers, 0) > 0) {
                         call(Twain.DG_CONTROL, Twain.DAT_PENDINGXFERS, Twain.MSG_RESET, pendingXfers);
                     }
-                    setState(5);
                 } catch (TwainException tfe) {
                     Twain.signalException(getClass().getName() + ".transfer:\n\t" + tfe);
 
@@ -431,11 +543,16 @@ public class TwainSource extends TwainIdentity {
                     if (TwainUtils.getINT16(pendingXfers, 0) > 0) {
                         call(Twain.DG_CONTROL, Twain.DAT_PENDINGXFERS, Twain.MSG_RESET, pendingXfers);
                     }
-                    setState(5);
                 } finally {
                     tt.cleanup();
                 }
             } while (TwainUtils.getINT16(pendingXfers, 0) != 0);
+            try {
+                tt.complete();
+            } finally {
+                flushCompletions();
+                setState(5);
+            }
         } finally {
             if (userCancelled || (showUI == 0)) {
                 userCancelled = false;
@@ -490,9 +607,24 @@ public class TwainSource extends TwainIdentity {
 //        }
         super.close();
         busy = false;
+        flushCompletions();
         setState(3);
     }
 
+    /**
+     * Waits for the pages still on the completion queue, so listeners get
+     * every file before the state change that ends the job.
+     */
+    private void flushCompletions() {
+        if (completionQueue != null) {
+            try {
+                completionQueue.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     int handleGetMessage(Pointer msgPtr) throws TwainException {
         if (state < 5) {
             return Twain.TWRC_NOTDSEVENT;
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.image;
+
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.exceptions.TwainException;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+/**
+ * Collects a JPEG or CCITT G4 compressed page from memory transfer strips.
+ * The strips are kept compressed, either in a growing heap buffer that is
+ * decoded once the page is complete, or streamed to a file as they arrive.
+ * JPEG strips are written as they come; G4 data is put behind a single strip
+ * TIFF header. Decoding goes through ImageIO, so G4 pages need a TIFF reader
+ * with CCITT support on the class path (bundled with Java 9 and later).
+ *
+ * @author lucifer
+ */
+public class TwainCompressedAssembler {
+
+    private static final int TIFF_ENTRIES = 12;
+    private static final int TIFF_HEADER = 8 + 2 + TIFF_ENTRIES * 12 + 4 + 16;
+
+    private final int compression;
+    private final int width;
+    private int height;
+    private final double xResolution;
+    private final double yResolution;
+
+    private byte[] data = new byte[64 << 10];
+    private int size;
+    private FileChannel channel;
+
+    /**
+     * @param height page rows, or -1 if undefined until the transfer is done
+     */
+    public TwainCompressedAssembler(int compression, int width, int height, double xResolution, double yResolution) throws TwainException {
+        if (!isSupported(compression)) {
+            throw new TwainException(getClass().getName() + "\n\tUnsupported compression " + compression);
+        }
+        this.compression = compression;
+        this.width = width;
+        this.height = height;
+        this.xResolution = xResolution;
+        this.yResolution = yResolution;
+    }
+
+    public static boolean isSupported(int compression) {
+        return compression == Twain.TWCP_JPEG || compression == Twain.TWCP_GROUP4;
+    }
+
+    /**
+     * @return whether {@link #getImage()} can decode pages of the given
+     * compression: always for JPEG, for G4 only when ImageIO has a TIFF reader
+     * registered (Java 9 and later, or a plugin such as jai-imageio). Java 8
+     * has none
+     */
+    public static boolean isDecodable(int compression) {
+        if (compression == Twain.TWCP_JPEG) {
+            return true;
+        }
+        return compression == Twain.TWCP_GROUP4 && ImageIO.getImageReadersByFormatName("tiff").hasNext();
+    }
+
+    public static String getExtension(int compression) {
+        return Twain.ImageFileFormatExts[compression == Twain.TWCP_JPEG ? Twain.TWFF_JFIF : Twain.TWFF_TIFF];
+    }
+
+    public String getExtension() {
+        return getExtension(compression);
+    }
+
+    public int getCompression() {
+        return compression;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    /**
+     * @return compressed bytes received so far
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Streams the following strips to the file instead of keeping them.
+     */
+    public void open(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(compression == Twain.TWCP_GROUP4 ? TIFF_HEADER : 0);
+        if (size > 0) {
+            write(ByteBuffer.wrap(data, 0, size));
+        }
+        data = null;
+    }
+
+    public boolean isOpen() {
+        return channel != null;
+    }
+
+    public void append(ByteBuffer strip) throws IOException {
+        if (channel != null) {
+            write(strip.duplicate());
+            size += strip.remaining();
+            return;
+        }
+        int length = strip.remaining();
+        if (size + length > data.length) {
+            data = Arrays.copyOf(data, Math.max(size + length, data.length * 2));
+        }
+        strip.duplicate().get(data, size, length);
+        size += length;
+    }
+
+    /**
+     * Completes the file started by {@link #open(File)}.
+     */
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (compression == Twain.TWCP_GROUP4) {
+                ByteBuffer header = createTiffHeader();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            }
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    public BufferedImage getImage() throws TwainException {
+        if (data == null) {
+            throw new TwainException(getClass().getName() + ".getImage:\n\tPage was written to a file");
+        }
+        byte[] stream = data;
+        int offset = 0;
+        int length = size;
+        if (compression == Twain.TWCP_GROUP4) {
+            stream = new byte[TIFF_HEADER + size];
+            createTiffHeader().get(stream, 0, TIFF_HEADER);
+            System.arraycopy(data, 0, stream, TIFF_HEADER, size);
+            length = stream.length;
+        }
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(stream, offset, length));
+        } catch (IOException e) {
+            throw new TwainException(getClass().getName() + ".getImage:\n\t" + e.getMessage(), e);
+        }
+        if (image == null) {
+            throw new TwainException(getClass().getName() + ".getImage:\n\tNo image reader for " + (compression == Twain.TWCP_JPEG ? "JPEG" : "CCITT G4 TIFF"));
+        }
+        return image;
+    }
+
+    private ByteBuffer createTiffHeader() {
+        ByteBuffer header = ByteBuffer.allocate(TIFF_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        int xResOffset = TIFF_HEADER - 16;
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        header.putShort((short) TIFF_ENTRIES);
+        TwainDibWriter.putEntry(header, 256, TwainDibWriter.TIFF_LONG, 1, width);
+        TwainDibWriter.putEntry(header, 257, TwainDibWriter.TIFF_LONG, 1, Math.max(height, 0));
+        TwainDibWriter.putEntry(header, 258, TwainDibWriter.TIFF_SHORT, 1, 1);
+        TwainDibWriter.putEntry(header, 259, TwainDibWriter.TIFF_SHORT, 1, 4);
+        TwainDibWriter.putEntry(header, 262, TwainDibWriter.TIFF_SHORT, 1, 0);
+        TwainDibWriter.putEntry(header, 273, TwainDibWriter.TIFF_LONG, 1, TIFF_HEADER);
+        TwainDibWriter.putEntry(header, 277, TwainDibWriter.TIFF_SHORT, 1, 1);
+        TwainDibWriter.putEntry(header, 278, TwainDibWriter.TIFF_LONG, 1, Math.max(height, 0));
+        TwainDibWriter.putEntry(header, 279, TwainDibWriter.TIFF_LONG, 1, size);
+        TwainDibWriter.putEntry(header, 282, TwainDibWriter.TIFF_RATIONAL, 1, xResOffset);
+        TwainDibWriter.putEntry(header, 283, TwainDibWriter.TIFF_RATIONAL, 1, xResOffset + 8);
+        TwainDibWriter.putEntry(header, 296, TwainDibWriter.TIFF_SHORT, 1, 2);
+        header.putInt(0);
+        header.putInt(resolution(xResolution)).putInt(100);
+        header.putInt(resolution(yResolution)).putInt(100);
+        header.flip();
+        return header;
+    }
+
+    private static int resolution(double dpi) {
+        return (int) Math.round((dpi > 0 ? dpi : 72) * 100);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
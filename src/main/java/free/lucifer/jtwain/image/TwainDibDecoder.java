@@ -0,0 +1,462 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.image;
+
+import free.lucifer.jtwain.exceptions.TwainException;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes a packed DIB (BITMAPINFOHEADER, palette and pixels) held in a
+ * {@link ByteBuffer}. The buffer may be a direct view over the locked native
+ * handle, so the whole page crosses JNA once and rows are flipped and unpadded
+ * in Java.
+ *
+ * @author lucifer
+ */
+public class TwainDibDecoder {
+
+    public static final int HEADER_SIZE = 40;
+
+    public static final int BI_RGB = 0;
+    public static final int BI_BITFIELDS = 3;
+    public static final int BI_ALPHABITFIELDS = 6;
+
+    public static final int GRAY_NONE = 0;
+    public static final int GRAY_IDENTITY = 1;
+    public static final int GRAY_INVERTED = 2;
+
+    private static final int MIN_BAND_ROWS = 64;
+
+    private static volatile long parallelThreshold = 32L << 20;
+    private static volatile ForkJoinPool pool;
+
+    private final int headerSize;
+    private final int width;
+    private final int height;
+    private final boolean bottomUp;
+    private final int bitCount;
+    private final int compression;
+    private final int colorsUsed;
+    private final int xPelsPerMeter;
+    private final int yPelsPerMeter;
+
+    public TwainDibDecoder(ByteBuffer header) {
+        ByteBuffer h = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        headerSize = h.getInt(0);
+        width = h.getInt(4);
+        int biHeight = h.getInt(8);
+        bottomUp = biHeight > 0;
+        height = Math.abs(biHeight);
+        bitCount = h.getShort(14);
+        compression = h.getInt(16);
+        xPelsPerMeter = h.getInt(24);
+        yPelsPerMeter = h.getInt(28);
+        colorsUsed = h.getInt(32);
+    }
+
+    /**
+     * Pages with more pixel bytes than this are split into horizontal bands
+     * and copied in parallel.
+     */
+    public static void setParallelThreshold(long bytes) {
+        parallelThreshold = bytes;
+    }
+
+    public static long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public static void setPool(ForkJoinPool pool) {
+        TwainDibDecoder.pool = pool;
+    }
+
+    public static ForkJoinPool getPool() {
+        ForkJoinPool p = pool;
+        return p != null ? p : ForkJoinPool.commonPool();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isBottomUp() {
+        return bottomUp;
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    public int getCompression() {
+        return compression;
+    }
+
+    public int getXPelsPerMeter() {
+        return xPelsPerMeter;
+    }
+
+    public int getYPelsPerMeter() {
+        return yPelsPerMeter;
+    }
+
+    public int getColorsInPalette() {
+        if (colorsUsed != 0) {
+            return colorsUsed;
+        }
+        return bitCount <= 8 ? 1 << bitCount : 0;
+    }
+
+    public int getPaletteOffset() {
+        if (headerSize == HEADER_SIZE) {
+            switch (compression) {
+                case BI_BITFIELDS:
+                    return headerSize + 12;
+                case BI_ALPHABITFIELDS:
+                    return headerSize + 16;
+                default:
+            }
+        }
+        return headerSize;
+    }
+
+    public int getPixelOffset() {
+        return getPaletteOffset() + getColorsInPalette() * 4;
+    }
+
+    public int getBytesPerLine() {
+        return ((width * bitCount + 31) >> 5) << 2;
+    }
+
+    public int getBytesPerRow() {
+        return (width * bitCount + 7) >> 3;
+    }
+
+    public int getDibSize() {
+        return getPixelOffset() + getBytesPerLine() * height;
+    }
+
+    public void checkFormat() throws TwainException {
+        if (compression != BI_RGB && compression != BI_BITFIELDS && compression != BI_ALPHABITFIELDS) {
+            throw new TwainException("Cannot deal with DIB header");
+        }
+        switch (bitCount) {
+            case 1:
+            case 4:
+            case 8:
+            case 16:
+            case 24:
+            case 32:
+            case 48:
+                break;
+            default:
+                throw new TwainException("Unsupported bit size");
+        }
+    }
+
+    public BufferedImage decode(ByteBuffer dib) throws TwainException {
+        checkFormat();
+        byte[] palette = bitCount <= 8 ? readPalette(dib) : null;
+        int gray = bitCount == 8 ? getGrayRamp(palette) : GRAY_NONE;
+
+        BufferedImage image;
+        long size = (long) getBytesPerRow() * height;
+        if (TwainMappedDataBuffer.isMapped(size)) {
+            BufferedImage template = createImage(dib, palette, gray, 1, 1);
+            SampleModel sm = template.getSampleModel().createCompatibleSampleModel(width, height);
+            DataBuffer db;
+            try {
+                db = new TwainMappedDataBuffer(sm.getDataType(), (int) (size / (DataBuffer.getDataTypeSize(sm.getDataType()) >> 3)));
+            } catch (IOException e) {
+                throw new TwainException(getClass().getName() + ".decode:\n\tCannot map raster: " + e.getMessage(), e);
+            }
+            image = new BufferedImage(template.getColorModel(), Raster.createWritableRaster(sm, db, null), false, null);
+        } else {
+            image = createImage(dib, palette, gray, width, height);
+        }
+        copyRows(dib, image.getRaster().getDataBuffer(), gray == GRAY_INVERTED);
+        return image;
+    }
+
+    private BufferedImage createImage(ByteBuffer dib, byte[] palette, int gray, int w, int h) throws TwainException {
+        switch (bitCount) {
+            case 1:
+            case 4:
+                return new BufferedImage(TwainPaletteCache.getColorModel(bitCount, palette), Raster.createPackedRaster(DataBuffer.TYPE_BYTE, w, h, 1, bitCount, null), false, null);
+            case 8:
+                if (gray == GRAY_NONE) {
+                    return new BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED, TwainPaletteCache.getColorModel(bitCount, palette));
+                }
+                return new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            case 16:
+                return create16BitImage(dib, w, h);
+            case 24:
+                return new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+            case 32:
+                return create32BitImage(dib, w, h);
+            case 48:
+                return create48BitImage(w, h);
+            default:
+                throw new TwainException("Unsupported bit size");
+        }
+    }
+
+    private BufferedImage create16BitImage(ByteBuffer dib, int w, int h) {
+        if (compression == BI_RGB) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_USHORT_555_RGB);
+        }
+        int[] masks = readMasks(dib);
+        if (masks[0] == masks[1] && masks[1] == masks[2]) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_USHORT_GRAY);
+        }
+        if (masks[0] == 0xF800 && masks[1] == 0x07E0 && masks[2] == 0x001F) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_USHORT_565_RGB);
+        }
+        if (masks[0] == 0x7C00 && masks[1] == 0x03E0 && masks[2] == 0x001F) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_USHORT_555_RGB);
+        }
+        return createDirectImage(masks, w, h);
+    }
+
+    private BufferedImage create32BitImage(ByteBuffer dib, int w, int h) {
+        if (compression == BI_RGB) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] masks = readMasks(dib);
+        if (masks[0] == 0x00FF0000 && masks[1] == 0x0000FF00 && masks[2] == 0x000000FF) {
+            if (masks[3] == 0) {
+                return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            }
+            if (masks[3] == 0xFF000000) {
+                return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            }
+        }
+        return createDirectImage(masks, w, h);
+    }
+
+    private BufferedImage createDirectImage(int[] masks, int w, int h) {
+        DirectColorModel cm = masks[3] == 0
+                ? new DirectColorModel(bitCount, masks[0], masks[1], masks[2])
+                : new DirectColorModel(bitCount, masks[0], masks[1], masks[2], masks[3]);
+        return new BufferedImage(cm, cm.createCompatibleWritableRaster(w, h), false, null);
+    }
+
+    private BufferedImage create48BitImage(int w, int h) {
+        ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_USHORT, w, h, w * 3, 3, new int[]{2, 1, 0}, null);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    private int[] readMasks(ByteBuffer dib) {
+        ByteBuffer src = dib.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int[] masks = new int[4];
+        masks[0] = src.getInt(HEADER_SIZE);
+        masks[1] = src.getInt(HEADER_SIZE + 4);
+        masks[2] = src.getInt(HEADER_SIZE + 8);
+        if (compression == BI_ALPHABITFIELDS || headerSize >= HEADER_SIZE + 16) {
+            masks[3] = src.getInt(HEADER_SIZE + 12);
+        }
+        return masks;
+    }
+
+    private ByteBuffer pixels(ByteBuffer dib) {
+        ByteBuffer src = dib.duplicate();
+        src.position(getPixelOffset());
+        return src.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void copyRows(ByteBuffer dib, DataBuffer dst, boolean invert) {
+        ByteBuffer src = pixels(dib);
+        ForkJoinPool pool = getPool();
+        if ((long) getBytesPerRow() * height < parallelThreshold || pool.getParallelism() < 2) {
+            copyRows(src, dst, 0, height, invert);
+        } else {
+            int bandRows = Math.max(MIN_BAND_ROWS, (height + pool.getParallelism() - 1) / pool.getParallelism());
+            pool.invoke(new RowBand(src, dst, 0, height, bandRows, invert));
+        }
+    }
+
+    private void copyRows(ByteBuffer src, DataBuffer dst, int from, int to, boolean invert) {
+        if (dst instanceof TwainMappedDataBuffer) {
+            copyRows(src, ((TwainMappedDataBuffer) dst).getBuffer(), from, to, invert);
+            return;
+        }
+        switch (dst.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                copyRows(src, ((DataBufferByte) dst).getData(), from, to, invert);
+                break;
+            case DataBuffer.TYPE_USHORT:
+                copyRows(src.asShortBuffer(), ((DataBufferUShort) dst).getData(), from, to);
+                break;
+            case DataBuffer.TYPE_INT:
+                copyRows(src.asIntBuffer(), ((DataBufferInt) dst).getData(), from, to);
+                break;
+            default:
+        }
+    }
+
+    private void copyRows(ByteBuffer src, byte[] data, int from, int to, boolean invert) {
+        int size = getBytesPerRow();
+        int bpl = getBytesPerLine();
+
+        if (!bottomUp && size == bpl) {
+            src.position(from * size);
+            src.get(data, from * size, (to - from) * size);
+            if (invert) {
+                invert(data, from * size, (to - from) * size);
+            }
+            return;
+        }
+        for (int i = from, offset = from * bpl; i < to; i++, offset += bpl) {
+            int row = bottomUp ? height - 1 - i : i;
+            src.position(offset);
+            src.get(data, row * size, size);
+            if (invert) {
+                invert(data, row * size, size);
+            }
+        }
+    }
+
+    private void copyRows(ByteBuffer src, ByteBuffer dst, int from, int to, boolean invert) {
+        int size = getBytesPerRow();
+        int bpl = getBytesPerLine();
+        byte[] line = invert ? new byte[size] : null;
+
+        for (int i = from, offset = from * bpl; i < to; i++, offset += bpl) {
+            int row = bottomUp ? height - 1 - i : i;
+            src.clear();
+            src.position(offset);
+            src.limit(offset + size);
+            dst.position(row * size);
+            if (invert) {
+                src.get(line);
+                invert(line, 0, size);
+                dst.put(line);
+            } else {
+                dst.put(src);
+            }
+        }
+    }
+
+    private static void invert(byte[] data, int off, int len) {
+        for (int end = off + len; off < end; off++) {
+            data[off] = (byte) ~data[off];
+        }
+    }
+
+    private void copyRows(ShortBuffer src, short[] data, int from, int to) {
+        int size = getBytesPerRow() >> 1;
+        int bpl = getBytesPerLine() >> 1;
+
+        for (int i = from, offset = from * bpl; i < to; i++, offset += bpl) {
+            int row = bottomUp ? height - 1 - i : i;
+            src.position(offset);
+            src.get(data, row * size, size);
+        }
+    }
+
+    private void copyRows(IntBuffer src, int[] data, int from, int to) {
+        int size = width;
+
+        for (int i = from, offset = from * size; i < to; i++, offset += size) {
+            int row = bottomUp ? height - 1 - i : i;
+            src.position(offset);
+            src.get(data, row * size, size);
+        }
+    }
+
+    private class RowBand extends RecursiveAction {
+
+        private static final long serialVersionUID = 6120473855190231817L;
+
+        private final ByteBuffer src;
+        private final DataBuffer dst;
+        private final int from;
+        private final int to;
+        private final int bandRows;
+        private final boolean invert;
+
+        RowBand(ByteBuffer src, DataBuffer dst, int from, int to, int bandRows, boolean invert) {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.bandRows = bandRows;
+            this.invert = invert;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandRows) {
+                copyRows(src.duplicate().order(ByteOrder.LITTLE_ENDIAN), dst, from, to, invert);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RowBand(src, dst, from, mid, bandRows, invert), new RowBand(src, dst, mid, to, bandRows, invert));
+        }
+    }
+
+    private byte[] readPalette(ByteBuffer dib) {
+        byte[] quads = new byte[getColorsInPalette() * 4];
+        ByteBuffer src = dib.duplicate();
+        src.position(getPaletteOffset());
+        src.get(quads);
+        return quads;
+    }
+
+    /**
+     * Tells whether a 256 entry palette is the plain grayscale ramp, the
+     * inverted one or neither.
+     */
+    public static int getGrayRamp(byte[] quads) {
+        if (quads.length != 256 * 4) {
+            return GRAY_NONE;
+        }
+        boolean identity = true;
+        boolean inverted = true;
+        for (int i = 0, off = 0; i < 256 && (identity || inverted); i++, off += 4) {
+            int b = quads[off] & 0xFF;
+            if (b != (quads[off + 1] & 0xFF) || b != (quads[off + 2] & 0xFF)) {
+                return GRAY_NONE;
+            }
+            identity &= b == i;
+            inverted &= b == 255 - i;
+        }
+        return identity ? GRAY_IDENTITY : inverted ? GRAY_INVERTED : GRAY_NONE;
+    }
+}
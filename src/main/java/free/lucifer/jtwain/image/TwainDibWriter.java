@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.image;
+
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.exceptions.TwainException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a packed DIB as uncompressed BMP or strip based TIFF without building
+ * a raster. BMP is the DIB behind a file header; TIFF strips are gathered from
+ * row slices of the DIB, only 24 bpp rows go through a fixed strip buffer to
+ * swap BGR to RGB.
+ *
+ * @author lucifer
+ */
+public class TwainDibWriter {
+
+    private static final int STRIP_SIZE = 64 << 10;
+
+    static final int TIFF_SHORT = 3;
+    static final int TIFF_LONG = 4;
+    static final int TIFF_RATIONAL = 5;
+
+    private final ByteBuffer dib;
+    private final TwainDibDecoder decoder;
+
+    public TwainDibWriter(ByteBuffer dib) {
+        this.dib = dib.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.decoder = new TwainDibDecoder(dib);
+    }
+
+    public static String getExtension(int format) {
+        return Twain.ImageFileFormatExts[format == Twain.TWFF_TIFF ? Twain.TWFF_TIFF : Twain.TWFF_BMP];
+    }
+
+    public void write(File file, int format) throws IOException, TwainException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (format == Twain.TWFF_TIFF) {
+                writeTiff(ch);
+            } else {
+                writeBmp(ch);
+            }
+        }
+    }
+
+    public void writeBmp(GatheringByteChannel ch) throws IOException {
+        int size = decoder.getDibSize();
+        ByteBuffer header = ByteBuffer.allocate(14).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'B').put((byte) 'M');
+        header.putInt(14 + size);
+        header.putInt(0);
+        header.putInt(14 + decoder.getPixelOffset());
+        header.flip();
+
+        ByteBuffer body = dib.duplicate();
+        body.position(0);
+        body.limit(size);
+        write(ch, header, body);
+    }
+
+    public void writeTiff(GatheringByteChannel ch) throws IOException, TwainException {
+        int bitCount = decoder.getBitCount();
+        if (decoder.getCompression() != TwainDibDecoder.BI_RGB) {
+            throw new TwainException(getClass().getName() + ".writeTiff:\n\tCannot deal with DIB header");
+        }
+        int samples;
+        int photometric;
+        switch (bitCount) {
+            case 1:
+                samples = 1;
+                photometric = isBlackFirst() ? 1 : 0;
+                break;
+            case 4:
+            case 8:
+                samples = 1;
+                photometric = 3;
+                break;
+            case 24:
+                samples = 3;
+                photometric = 2;
+                break;
+            default:
+                throw new TwainException(getClass().getName() + ".writeTiff:\n\tUnsupported bit size " + bitCount);
+        }
+
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int rowBytes = decoder.getBytesPerRow();
+        int rowsPerStrip = Math.max(1, Math.min(height, STRIP_SIZE / Math.max(1, rowBytes)));
+        int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        int colorMap = photometric == 3 ? 3 << bitCount : 0;
+
+        int entries = colorMap == 0 ? 12 : 13;
+        int ifdSize = 2 + entries * 12 + 4;
+        int extra = 8 + ifdSize;
+        int bitsOffset = extra;
+        extra += samples > 1 ? samples * 2 : 0;
+        int offsetsOffset = extra;
+        extra += strips > 1 ? strips * 4 : 0;
+        int countsOffset = extra;
+        extra += strips > 1 ? strips * 4 : 0;
+        int xResOffset = extra;
+        int yResOffset = extra + 8;
+        extra += 16;
+        int colorMapOffset = extra;
+        extra += colorMap * 2;
+        int dataOffset = extra;
+
+        ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        header.putShort((short) entries);
+        putEntry(header, 256, TIFF_LONG, 1, width);
+        putEntry(header, 257, TIFF_LONG, 1, height);
+        putEntry(header, 258, TIFF_SHORT, samples, samples > 1 ? bitsOffset : bitCount);
+        putEntry(header, 259, TIFF_SHORT, 1, 1);
+        putEntry(header, 262, TIFF_SHORT, 1, photometric);
+        putEntry(header, 273, TIFF_LONG, strips, strips > 1 ? offsetsOffset : dataOffset);
+        putEntry(header, 277, TIFF_SHORT, 1, samples);
+        putEntry(header, 278, TIFF_LONG, 1, rowsPerStrip);
+        putEntry(header, 279, TIFF_LONG, strips, strips > 1 ? countsOffset : rowBytes * height);
+        putEntry(header, 282, TIFF_RATIONAL, 1, xResOffset);
+        putEntry(header, 283, TIFF_RATIONAL, 1, yResOffset);
+        boolean metric = decoder.getXPelsPerMeter() > 0 && decoder.getYPelsPerMeter() > 0;
+        putEntry(header, 296, TIFF_SHORT, 1, metric ? 3 : 2);
+        if (colorMap != 0) {
+            putEntry(header, 320, TIFF_SHORT, colorMap, colorMapOffset);
+        }
+        header.putInt(0);
+
+        if (samples > 1) {
+            for (int i = 0; i < samples; i++) {
+                header.putShort((short) 8);
+            }
+        }
+        if (strips > 1) {
+            for (int i = 0, offset = dataOffset; i < strips; i++, offset += rowsPerStrip * rowBytes) {
+                header.putInt(offset);
+            }
+            for (int i = 0; i < strips; i++) {
+                header.putInt(Math.min(rowsPerStrip, height - i * rowsPerStrip) * rowBytes);
+            }
+        }
+        if (metric) {
+            header.putInt(decoder.getXPelsPerMeter()).putInt(100);
+            header.putInt(decoder.getYPelsPerMeter()).putInt(100);
+        } else {
+            header.putInt(72).putInt(1);
+            header.putInt(72).putInt(1);
+        }
+        if (colorMap != 0) {
+            putColorMap(header, 1 << bitCount);
+        }
+        header.flip();
+        write(ch, header);
+
+        if (bitCount == 24) {
+            writeBgrStrips(ch, rowsPerStrip);
+        } else {
+            writeStrips(ch, rowsPerStrip);
+        }
+    }
+
+    private void writeStrips(GatheringByteChannel ch, int rowsPerStrip) throws IOException {
+        int height = decoder.getHeight();
+        ByteBuffer[] rows = new ByteBuffer[rowsPerStrip];
+        for (int y = 0; y < height; y += rowsPerStrip) {
+            int n = Math.min(rowsPerStrip, height - y);
+            for (int i = 0; i < n; i++) {
+                rows[i] = row(y + i);
+            }
+            long remaining = (long) n * decoder.getBytesPerRow();
+            while (remaining > 0) {
+                remaining -= ch.write(rows, 0, n);
+            }
+        }
+    }
+
+    private void writeBgrStrips(GatheringByteChannel ch, int rowsPerStrip) throws IOException {
+        int height = decoder.getHeight();
+        int rowBytes = decoder.getBytesPerRow();
+        ByteBuffer strip = ByteBuffer.allocateDirect(rowsPerStrip * rowBytes);
+        byte[] line = new byte[rowBytes];
+        for (int y = 0; y < height; y += rowsPerStrip) {
+            int n = Math.min(rowsPerStrip, height - y);
+            strip.clear();
+            for (int i = 0; i < n; i++) {
+                row(y + i).get(line);
+                for (int x = 0; x < rowBytes; x += 3) {
+                    byte b = line[x];
+                    line[x] = line[x + 2];
+                    line[x + 2] = b;
+                }
+                strip.put(line);
+            }
+            strip.flip();
+            write(ch, strip);
+        }
+    }
+
+    private ByteBuffer row(int y) {
+        int line = decoder.isBottomUp() ? decoder.getHeight() - 1 - y : y;
+        ByteBuffer row = dib.duplicate();
+        row.position(decoder.getPixelOffset() + line * decoder.getBytesPerLine());
+        row.limit(row.position() + decoder.getBytesPerRow());
+        return row;
+    }
+
+    private boolean isBlackFirst() {
+        int offset = decoder.getPaletteOffset();
+        int first = (dib.get(offset) & 0xFF) + (dib.get(offset + 1) & 0xFF) + (dib.get(offset + 2) & 0xFF);
+        int second = (dib.get(offset + 4) & 0xFF) + (dib.get(offset + 5) & 0xFF) + (dib.get(offset + 6) & 0xFF);
+        return first <= second;
+    }
+
+    private void putColorMap(ByteBuffer header, int size) {
+        int colors = Math.min(size, decoder.getColorsInPalette());
+        int offset = decoder.getPaletteOffset();
+        for (int c = 2; c >= 0; c--) {
+            for (int i = 0; i < size; i++) {
+                int v = i < colors ? dib.get(offset + i * 4 + c) & 0xFF : 0;
+                header.putShort((short) (v * 257));
+            }
+        }
+    }
+
+    static void putEntry(ByteBuffer header, int tag, int type, int count, int value) {
+        header.putShort((short) tag);
+        header.putShort((short) type);
+        header.putInt(count);
+        if (type == TIFF_SHORT && count == 1) {
+            header.putShort((short) value).putShort((short) 0);
+        } else {
+            header.putInt(value);
+        }
+    }
+
+    private static void write(GatheringByteChannel ch, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer b : buffers) {
+            remaining += b.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= ch.write(buffers);
+        }
+    }
+}
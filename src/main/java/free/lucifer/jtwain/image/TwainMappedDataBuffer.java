@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.image;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single bank {@link DataBuffer} backed by a memory-mapped temporary file
+ * instead of a heap array. Elements are stored little-endian, so DIB rows and
+ * memory transfer strips can be copied into {@link #getBuffer()} byte for
+ * byte. Pages with more pixel bytes than {@link #getThreshold()} get one
+ * automatically.
+ *
+ * @author lucifer
+ */
+public class TwainMappedDataBuffer extends DataBuffer {
+
+    private static volatile long threshold = Long.MAX_VALUE;
+    private static volatile File directory = null;
+
+    private final ByteBuffer buffer;
+    private final ShortBuffer shorts;
+    private final IntBuffer ints;
+
+    public TwainMappedDataBuffer(int dataType, int size) throws IOException {
+        super(dataType, size);
+        switch (dataType) {
+            case TYPE_BYTE:
+            case TYPE_USHORT:
+            case TYPE_INT:
+                break;
+            default:
+                throw new IllegalArgumentException(getClass().getName() + "\n\tUnsupported data type " + dataType);
+        }
+        long bytes = (long) size * (getDataTypeSize(dataType) >> 3);
+        File file = File.createTempFile("twain", ".raster", directory);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            buffer = ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        shorts = dataType == TYPE_USHORT ? buffer.asShortBuffer() : null;
+        ints = dataType == TYPE_INT ? buffer.asIntBuffer() : null;
+    }
+
+    /**
+     * Pages with more pixel bytes than this are decoded into a mapped buffer.
+     * Disabled by default.
+     */
+    public static void setThreshold(long bytes) {
+        threshold = bytes;
+    }
+
+    public static long getThreshold() {
+        return threshold;
+    }
+
+    public static void setDirectory(File dir) {
+        directory = dir;
+    }
+
+    public static File getDirectory() {
+        return directory;
+    }
+
+    public static boolean isMapped(long bytes) {
+        return bytes > threshold && bytes <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return little-endian view over the whole mapping, positioned at zero
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int getElem(int bank, int i) {
+        switch (dataType) {
+            case TYPE_BYTE:
+                return buffer.get(i) & 0xFF;
+            case TYPE_USHORT:
+                return shorts.get(i) & 0xFFFF;
+            default:
+                return ints.get(i);
+        }
+    }
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        switch (dataType) {
+            case TYPE_BYTE:
+                buffer.put(i, (byte) val);
+                break;
+            case TYPE_USHORT:
+                shorts.put(i, (short) val);
+                break;
+            default:
+                ints.put(i, val);
+                break;
+        }
+    }
+}
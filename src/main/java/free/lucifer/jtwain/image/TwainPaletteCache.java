@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.image;
+
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU of shared {@link IndexColorModel} instances keyed by the raw DIB
+ * palette, so a batch with one palette builds its color model once.
+ *
+ * @author lucifer
+ */
+public class TwainPaletteCache {
+
+    private static int maxSize = 16;
+
+    private static final Map<Key, IndexColorModel> cache = new LinkedHashMap<Key, IndexColorModel>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = -3785416521963045712L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, IndexColorModel> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    public static synchronized void setMaxSize(int size) {
+        maxSize = Math.max(1, size);
+        while (cache.size() > maxSize) {
+            cache.remove(cache.keySet().iterator().next());
+        }
+    }
+
+    public static synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public static synchronized void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @param bits bits per pixel of the image
+     * @param quads palette as read from the DIB, four bytes (B, G, R, reserved)
+     * per entry
+     */
+    public static IndexColorModel getColorModel(int bits, byte[] quads) {
+        Key key = new Key(bits, quads);
+        synchronized (TwainPaletteCache.class) {
+            IndexColorModel icm = cache.get(key);
+            if (icm != null) {
+                return icm;
+            }
+        }
+        IndexColorModel icm = createColorModel(bits, quads);
+        synchronized (TwainPaletteCache.class) {
+            cache.put(key, icm);
+        }
+        return icm;
+    }
+
+    private static IndexColorModel createColorModel(int bits, byte[] quads) {
+        int size = quads.length >> 2;
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        for (int i = 0, off = 0; i < size; i++, off += 4) {
+            b[i] = quads[off];
+            g[i] = quads[off + 1];
+            r[i] = quads[off + 2];
+        }
+        return new IndexColorModel(bits, size, r, g, b);
+    }
+
+    private static class Key {
+
+        private final int bits;
+        private final byte[] quads;
+        private final int hash;
+
+        Key(int bits, byte[] quads) {
+            this.bits = bits;
+            this.quads = quads;
+            this.hash = 31 * bits + Arrays.hashCode(quads);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && bits == other.bits && Arrays.equals(quads, other.quads);
+        }
+    }
+}
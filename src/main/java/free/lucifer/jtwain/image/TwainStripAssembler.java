@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.image;
+
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.exceptions.TwainException;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Builds a page from uncompressed memory transfer strips. The raster is
+ * allocated once from the image info and every strip is copied into place as
+ * it arrives; when the source does not know the page length the raster grows
+ * as strips go past its end. Rasters above the
+ * {@link TwainMappedDataBuffer#getThreshold() mapping threshold}, and with
+ * {@link #setSpillUndefined(boolean)} every page of undefined length, go to a
+ * {@link TwainStripStore} that grows without copying.
+ * <p>
+ * Palette pages need the source palette set with {@link #setPalette} before
+ * the image is built. For ICAP_PIXELFLAVOR vanilla pages, see
+ * {@link #setVanilla(boolean)}, the ramp of 1 and 4 bpp pages is reversed and
+ * deeper gray samples are inverted as they are copied.
+ *
+ * @author lucifer
+ */
+public class TwainStripAssembler {
+
+    private static volatile int initialRows = 1024;
+    private static volatile boolean spillUndefined = false;
+
+    private final int width;
+    private final int height;
+    private final int bitsPerPixel;
+    private final int pixelType;
+    private final int stride;
+    private final int dataType;
+
+    private DataBuffer data;
+    private int capacity;
+    private int rows;
+    private IndexColorModel palette;
+    private boolean vanilla;
+    private byte[] line;
+
+    /**
+     * @param height page rows, or -1 if undefined
+     */
+    public TwainStripAssembler(int width, int height, int bitsPerPixel, int pixelType) throws TwainException {
+        if (width <= 0 || !isSupported(bitsPerPixel, pixelType)) {
+            throw new TwainException(getClass().getName() + "\n\tUnsupported image " + width + "x" + height + ", " + bitsPerPixel + " bpp, pixel type " + pixelType);
+        }
+        this.width = width;
+        this.height = height;
+        this.bitsPerPixel = bitsPerPixel;
+        this.pixelType = pixelType;
+        this.stride = (width * bitsPerPixel + 7) / 8;
+        this.dataType = bitsPerPixel == 16 || bitsPerPixel == 48 ? DataBuffer.TYPE_USHORT : DataBuffer.TYPE_BYTE;
+        this.capacity = height > 0 ? height : initialRows;
+        this.data = allocate(capacity);
+    }
+
+    /**
+     * Rows allocated up front when the page length is undefined.
+     */
+    public static void setInitialRows(int rows) {
+        initialRows = rows;
+    }
+
+    public static int getInitialRows() {
+        return initialRows;
+    }
+
+    /**
+     * Keep pages of undefined length in a {@link TwainStripStore} from the
+     * first strip on.
+     */
+    public static void setSpillUndefined(boolean spill) {
+        spillUndefined = spill;
+    }
+
+    public static boolean isSpillUndefined() {
+        return spillUndefined;
+    }
+
+    public static boolean isSupported(int bitsPerPixel, int pixelType) {
+        switch (pixelType) {
+            case Twain.TWPT_BW:
+                return bitsPerPixel == 1;
+            case Twain.TWPT_GRAY:
+                return bitsPerPixel == 4 || bitsPerPixel == 8 || bitsPerPixel == 16;
+            case Twain.TWPT_PALETTE:
+                return bitsPerPixel == 4 || bitsPerPixel == 8;
+            case Twain.TWPT_RGB:
+                return bitsPerPixel == 24 || bitsPerPixel == 48;
+            default:
+                return false;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return rows received so far
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public int getBytesPerRow() {
+        return stride;
+    }
+
+    /**
+     * @param palette colors of a TWPT_PALETTE page
+     */
+    public void setPalette(IndexColorModel palette) {
+        this.palette = palette;
+    }
+
+    public IndexColorModel getPalette() {
+        return palette;
+    }
+
+    /**
+     * @param vanilla zero samples are white (TWPF_VANILLA) in a TWPT_BW or
+     * TWPT_GRAY page
+     */
+    public void setVanilla(boolean vanilla) {
+        this.vanilla = vanilla;
+    }
+
+    public boolean isVanilla() {
+        return vanilla;
+    }
+
+    /**
+     * Copies one strip into the page.
+     *
+     * @param strip strip data starting at its position
+     * @param bytesPerRow source row stride, may include padding
+     */
+    public void append(ByteBuffer strip, int left, int top, int columns, int count, int bytesPerRow) throws TwainException {
+        int visible = Math.min(columns, width - left);
+        if (count <= 0 || visible <= 0) {
+            return;
+        }
+        if (top + count > capacity) {
+            grow(top + count);
+        }
+        ByteBuffer src = strip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int base = src.position();
+        int bitOffset = left * bitsPerPixel;
+        int bits = visible * bitsPerPixel;
+        if ((bitOffset & 7) != 0 || ((bits & 7) != 0 && left + visible < width)) {
+            for (int r = 0; r < count; r++) {
+                putBits(src, base + r * bytesPerRow, ((long) (top + r) * stride << 3) + bitOffset, bits);
+            }
+        } else {
+            int offset = bitOffset >> 3;
+            int size = Math.min((bits + 7) >> 3, stride - offset);
+            boolean invert = vanilla && bitsPerPixel >= 8 && pixelType == Twain.TWPT_GRAY;
+            for (int r = 0; r < count; r++) {
+                src.limit(base + r * bytesPerRow + size);
+                src.position(base + r * bytesPerRow);
+                put(invert ? invert(src, size) : src, (top + r) * stride + offset, size);
+            }
+        }
+        rows = Math.max(rows, top + count);
+    }
+
+    /**
+     * @return the page; for an undefined length it is cut to the rows
+     * received and may share a larger buffer
+     */
+    public BufferedImage getImage() {
+        int h = Math.max(rows, height);
+        SampleModel sm;
+        if (bitsPerPixel < 8) {
+            sm = new MultiPixelPackedSampleModel(dataType, width, capacity, bitsPerPixel, stride, 0);
+        } else {
+            int bands = pixelType == Twain.TWPT_RGB ? 3 : 1;
+            int elems = dataType == DataBuffer.TYPE_USHORT ? stride / 2 : stride;
+            sm = new PixelInterleavedSampleModel(dataType, width, capacity, bands, elems, bands == 3 ? new int[]{0, 1, 2} : new int[]{0});
+        }
+        BufferedImage image = new BufferedImage(createColorModel(), Raster.createWritableRaster(sm, data, null), false, null);
+        return h == capacity ? image : image.getSubimage(0, 0, width, Math.max(1, h));
+    }
+
+    private ColorModel createColorModel() {
+        if (pixelType == Twain.TWPT_PALETTE && palette != null) {
+            return palette;
+        }
+        if (bitsPerPixel < 8) {
+            int size = 1 << bitsPerPixel;
+            byte[] ramp = new byte[size];
+            for (int i = 0; i < size; i++) {
+                int v = i * 255 / (size - 1);
+                ramp[i] = (byte) (vanilla ? 255 - v : v);
+            }
+            return new IndexColorModel(bitsPerPixel, size, ramp, ramp, ramp);
+        }
+        ColorSpace cs = ColorSpace.getInstance(pixelType == Twain.TWPT_RGB ? ColorSpace.CS_sRGB : ColorSpace.CS_GRAY);
+        return new ComponentColorModel(cs, false, false, Transparency.OPAQUE, dataType);
+    }
+
+    private DataBuffer allocate(int count) throws TwainException {
+        long bytes = (long) stride * count;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new TwainException(getClass().getName() + ".allocate:\n\tPage too large: " + width + "x" + count + ", " + bitsPerPixel + " bpp");
+        }
+        int size = dataType == DataBuffer.TYPE_USHORT ? (int) (bytes / 2) : (int) bytes;
+        if (TwainMappedDataBuffer.isMapped(bytes) || (height < 0 && spillUndefined)) {
+            try {
+                return new TwainStripStore(dataType, size);
+            } catch (IOException e) {
+                throw new TwainException(getClass().getName() + ".allocate:\n\tCannot create strip store: " + e.getMessage(), e);
+            }
+        }
+        return dataType == DataBuffer.TYPE_USHORT ? new DataBufferUShort(size) : new DataBufferByte(size);
+    }
+
+    private void grow(int required) throws TwainException {
+        int count = Math.max(required, capacity + (capacity >> 1));
+        if (data instanceof TwainStripStore) {
+            long bytes = (long) stride * count;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new TwainException(getClass().getName() + ".grow:\n\tPage too large: " + width + "x" + count + ", " + bitsPerPixel + " bpp");
+            }
+            try {
+                ((TwainStripStore) data).setSize(dataType == DataBuffer.TYPE_USHORT ? (int) (bytes / 2) : (int) bytes);
+            } catch (IOException e) {
+                throw new TwainException(getClass().getName() + ".grow:\n\t" + e.getMessage(), e);
+            }
+            capacity = count;
+            return;
+        }
+        DataBuffer grown = allocate(count);
+        int used = rows * stride;
+        if (grown instanceof TwainStripStore) {
+            ByteBuffer src;
+            if (data instanceof DataBufferUShort) {
+                src = ByteBuffer.allocate(used).order(ByteOrder.LITTLE_ENDIAN);
+                src.asShortBuffer().put(((DataBufferUShort) data).getData(), 0, used / 2);
+            } else {
+                src = ByteBuffer.wrap(((DataBufferByte) data).getData(), 0, used);
+            }
+            ((TwainStripStore) grown).put(0, src);
+        } else if (data instanceof DataBufferUShort) {
+            System.arraycopy(((DataBufferUShort) data).getData(), 0, ((DataBufferUShort) grown).getData(), 0, used / 2);
+        } else {
+            System.arraycopy(((DataBufferByte) data).getData(), 0, ((DataBufferByte) grown).getData(), 0, used);
+        }
+        data = grown;
+        capacity = count;
+    }
+
+    private ByteBuffer invert(ByteBuffer src, int size) {
+        if (line == null) {
+            line = new byte[stride];
+        }
+        src.get(line, 0, size);
+        for (int i = 0; i < size; i++) {
+            line[i] = (byte) ~line[i];
+        }
+        return ByteBuffer.wrap(line, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies a row of sub-byte pixels that does not start or end on a byte
+     * boundary, merging the edge bytes with the pixels around it.
+     */
+    private void putBits(ByteBuffer src, int from, long dstBit, int bits) {
+        for (int i = 0; bits > 0; i++, bits -= 8, dstBit += 8) {
+            int valid = Math.min(8, bits);
+            int mask = (0xFF << (8 - valid)) & 0xFF;
+            int shift = (int) (dstBit & 7);
+            int value = ((src.get(from + i) & mask) << 8) >> shift;
+            int window = (mask << 8) >> shift;
+            int index = (int) (dstBit >> 3);
+            merge(index, value >> 8, window >> 8);
+            if ((window & 0xFF) != 0) {
+                merge(index + 1, value & 0xFF, window & 0xFF);
+            }
+        }
+    }
+
+    private void merge(int index, int value, int mask) {
+        data.setElem(index, (data.getElem(index) & ~mask) | value);
+    }
+
+    private void put(ByteBuffer src, int offset, int size) {
+        if (data instanceof TwainStripStore) {
+            ((TwainStripStore) data).put(offset, src);
+        } else if (data instanceof DataBufferUShort) {
+            src.asShortBuffer().get(((DataBufferUShort) data).getData(), offset / 2, size / 2);
+        } else {
+            src.get(((DataBufferByte) data).getData(), offset, size);
+        }
+    }
+}
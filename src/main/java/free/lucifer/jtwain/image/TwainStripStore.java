@@ -0,0 +1,347 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Page raster kept in a temp file that is mapped in fixed size chunks only
+ * when a strip is written to or a pixel read from that part of the page.
+ * The store grows by extending the file, nothing is copied, so pages of
+ * undefined length can run as long as the raster index allows. The store
+ * holds at most {@link #getMaxMappedChunks()} chunks; older ones are dropped
+ * and mapped again on the next access. The bound is advisory: a dropped
+ * chunk is unmapped by the JVM only when it is garbage collected.
+ * <p>
+ * Files are recycled: {@link #close()} or {@link #recycle(BufferedImage)}
+ * hands the file, emptied, to the next page. A store whose image is dropped
+ * without either is closed, and its file deleted, once it has been garbage
+ * collected, the next time a store is created or {@link #clear()} runs.
+ *
+ * @author lucifer
+ */
+public class TwainStripStore extends DataBuffer {
+
+    private static final Deque<FileChannel> idle = new ArrayDeque<>();
+    private static final ReferenceQueue<TwainStripStore> collected = new ReferenceQueue<>();
+    private static final Set<Handle> live = new HashSet<>();
+    private static int maxIdleFiles = 2;
+    private static int chunkShift = 24;
+    private static int maxMappedChunks = 16;
+    private static File directory = null;
+
+    private final FileChannel channel;
+    private final Handle handle;
+    private final int shift;
+    private final long mask;
+    private final int elemShift;
+    private volatile AtomicReferenceArray<ByteBuffer> chunks;
+    private final int[] mapped;
+    private int mappedCount;
+    private boolean closed;
+
+    public TwainStripStore(int dataType, int size) throws IOException {
+        super(dataType, size);
+        switch (dataType) {
+            case TYPE_BYTE:
+                elemShift = 0;
+                break;
+            case TYPE_USHORT:
+                elemShift = 1;
+                break;
+            case TYPE_INT:
+                elemShift = 2;
+                break;
+            default:
+                throw new IllegalArgumentException(getClass().getName() + "\n\tUnsupported data type " + dataType);
+        }
+        synchronized (TwainStripStore.class) {
+            expunge();
+            this.shift = chunkShift;
+            this.mapped = new int[Math.max(1, maxMappedChunks)];
+            this.channel = open();
+            this.handle = new Handle(this, channel);
+            live.add(handle);
+        }
+        this.mask = (1L << shift) - 1;
+        this.chunks = new AtomicReferenceArray<>(chunkCount(size));
+        preallocate();
+    }
+
+    public static synchronized void setChunkSize(int bytes) {
+        chunkShift = 31 - Integer.numberOfLeadingZeros(Math.max(4096, bytes));
+    }
+
+    public static synchronized int getChunkSize() {
+        return 1 << chunkShift;
+    }
+
+    public static synchronized void setMaxMappedChunks(int max) {
+        maxMappedChunks = max;
+    }
+
+    public static synchronized int getMaxMappedChunks() {
+        return maxMappedChunks;
+    }
+
+    public static synchronized void setMaxIdleFiles(int max) {
+        maxIdleFiles = max;
+    }
+
+    public static synchronized int getMaxIdleFiles() {
+        return maxIdleFiles;
+    }
+
+    public static synchronized void setDirectory(File dir) {
+        directory = dir;
+    }
+
+    public static synchronized File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the idle files and those of collected stores.
+     */
+    public static synchronized void clear() {
+        expunge();
+        for (FileChannel ch : idle) {
+            closeQuietly(ch);
+        }
+        idle.clear();
+    }
+
+    /**
+     * @return stores neither closed nor collected yet
+     */
+    public static synchronized int getOpenCount() {
+        expunge();
+        return live.size();
+    }
+
+    /**
+     * Takes an idle file, emptied so no bytes of the previous page show
+     * through, or creates one. A file that cannot be truncated, e.g. while
+     * mappings of its last page are still alive on Windows, is closed.
+     */
+    private static FileChannel open() throws IOException {
+        FileChannel ch;
+        while ((ch = idle.poll()) != null) {
+            try {
+                ch.truncate(0);
+                return ch;
+            } catch (IOException e) {
+                closeQuietly(ch);
+            }
+        }
+        File file = File.createTempFile("twain", ".strips", directory);
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    private static void expunge() {
+        Reference<? extends TwainStripStore> ref;
+        while ((ref = collected.poll()) != null) {
+            Handle h = (Handle) ref;
+            if (live.remove(h)) {
+                closeQuietly(h.channel);
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Returns the store behind the image, if any, for the next page. The image
+     * must not be used afterwards.
+     */
+    public static void recycle(BufferedImage image) {
+        if (image != null) {
+            recycle(image.getRaster());
+        }
+    }
+
+    public static void recycle(Raster raster) {
+        if (raster != null && raster.getDataBuffer() instanceof TwainStripStore) {
+            ((TwainStripStore) raster.getDataBuffer()).close();
+        }
+    }
+
+    /**
+     * Grows the store to the given number of elements.
+     */
+    public synchronized void setSize(int size) throws IOException {
+        if (size <= this.size) {
+            return;
+        }
+        int count = chunkCount(size);
+        if (count > chunks.length()) {
+            AtomicReferenceArray<ByteBuffer> grown = new AtomicReferenceArray<>(count);
+            for (int i = 0; i < chunks.length(); i++) {
+                grown.set(i, chunks.get(i));
+            }
+            chunks = grown;
+        }
+        this.size = size;
+        preallocate();
+    }
+
+    /**
+     * Writes the remaining bytes of src at the given byte offset.
+     */
+    public void put(long offset, ByteBuffer src) {
+        while (src.hasRemaining()) {
+            ByteBuffer dst = chunk((int) (offset >>> shift)).duplicate();
+            int position = (int) (offset & mask);
+            int length = Math.min(src.remaining(), dst.capacity() - position);
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            dst.position(position);
+            dst.put(src);
+            src.limit(limit);
+            offset += length;
+        }
+    }
+
+    @Override
+    public int getElem(int bank, int i) {
+        long offset = (long) i << elemShift;
+        ByteBuffer c = chunk((int) (offset >>> shift));
+        int position = (int) (offset & mask);
+        switch (dataType) {
+            case TYPE_BYTE:
+                return c.get(position) & 0xFF;
+            case TYPE_USHORT:
+                return c.getShort(position) & 0xFFFF;
+            default:
+                return c.getInt(position);
+        }
+    }
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        long offset = (long) i << elemShift;
+        ByteBuffer c = chunk((int) (offset >>> shift));
+        int position = (int) (offset & mask);
+        switch (dataType) {
+            case TYPE_BYTE:
+                c.put(position, (byte) val);
+                break;
+            case TYPE_USHORT:
+                c.putShort(position, (short) val);
+                break;
+            default:
+                c.putInt(position, val);
+                break;
+        }
+    }
+
+    /**
+     * Drops the mappings and returns the file to the idle pool.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunks = new AtomicReferenceArray<>(0);
+        }
+        synchronized (TwainStripStore.class) {
+            live.remove(handle);
+            handle.clear();
+            if (idle.size() < maxIdleFiles) {
+                idle.push(channel);
+                return;
+            }
+        }
+        closeQuietly(channel);
+    }
+
+    private int chunkCount(int elements) {
+        return (int) ((((long) elements << elemShift) + mask) >>> shift);
+    }
+
+    private void preallocate() throws IOException {
+        long bytes = (long) size << elemShift;
+        if (channel.size() < bytes) {
+            channel.write(ByteBuffer.allocate(1), bytes - 1);
+        }
+    }
+
+    private ByteBuffer chunk(int index) {
+        ByteBuffer c = chunks.get(index);
+        if (c == null) {
+            c = map(index);
+        }
+        return c;
+    }
+
+    private synchronized ByteBuffer map(int index) {
+        if (closed) {
+            throw new IllegalStateException(getClass().getName() + ".map:\n\tStore is closed");
+        }
+        ByteBuffer c = chunks.get(index);
+        if (c != null) {
+            return c;
+        }
+        try {
+            MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_WRITE, (long) index << shift, mask + 1);
+            c = m.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            throw new IllegalStateException(getClass().getName() + ".map:\n\t" + e.getMessage(), e);
+        }
+        if (mappedCount == mapped.length) {
+            chunks.set(mapped[0], null);
+            System.arraycopy(mapped, 1, mapped, 0, mapped.length - 1);
+            mappedCount--;
+        }
+        mapped[mappedCount++] = index;
+        chunks.set(index, c);
+        return c;
+    }
+
+    private static class Handle extends PhantomReference<TwainStripStore> {
+
+        final FileChannel channel;
+
+        Handle(TwainStripStore store, FileChannel channel) {
+            super(store, collected);
+            this.channel = channel;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package free.lucifer.jtwain.libs;
 
 import com.sun.jna.Callback;
 import com.sun.jna.Library;
+import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
 import com.sun.jna.platform.win32.WinDef;
@@ -270,6 +271,11 @@ public interface Win32Twain extends Library {
         public int Length;
         public Pointer TheMem;
 
+        public TW_MEMORY() {
+            super();
+            setAlignType(Structure.ALIGN_NONE);
+        }
+
         @Override
         protected List<String> getFieldOrder() {
             return Arrays.asList(new String[]{"Flags", "Length", "TheMem"});
@@ -278,6 +284,8 @@ public interface Win32Twain extends Library {
 
     public static class TW_IMAGEMEMXFER extends Structure implements Structure.ByValue {
 
+        public static final int MEMORY_OFFSET = 26;
+
         public short Compression;
         public int BytesPerRow;
         public int Columns;
@@ -285,13 +293,31 @@ public interface Win32Twain extends Library {
         public int XOffset;
         public int YOffset;
         public int BytesWritten;
-        public TW_MEMORY Memory;
+        public TW_MEMORY Memory = new TW_MEMORY();
+
+        public TW_IMAGEMEMXFER() {
+            super();
+            setAlignType(Structure.ALIGN_NONE);
+        }
 
         @Override
         protected List<String> getFieldOrder() {
             return Arrays.asList(new String[]{"Compression", "BytesPerRow", "Columns", "Rows", "XOffset", "YOffset", "BytesWritten", "Memory"});
         }
 
+        /**
+         * TWAIN structures are packed to two bytes; the offsets read back in
+         * free.lucifer.jtwain.transfer.TwainMemoryTransfer.Info depend on it.
+         *
+         * @throws IllegalStateException if JNA laid the structure out
+         * differently (34 bytes with Memory at 26 on win32)
+         */
+        public void checkLayout() {
+            int expected = MEMORY_OFFSET + 8 + Native.POINTER_SIZE;
+            if (fieldOffset("Memory") != MEMORY_OFFSET || size() != expected) {
+                throw new IllegalStateException(getClass().getName() + ".checkLayout:\n\tsize " + size() + ", Memory at " + fieldOffset("Memory") + "; expected size " + expected + ", Memory at " + MEMORY_OFFSET);
+            }
+        }
     }
 
 }
@@ -16,11 +16,14 @@
 package free.lucifer.jtwain.scan;
 
 import free.lucifer.jtwain.Twain;
-import free.lucifer.jtwain.TwainCapability;
+import free.lucifer.jtwain.TwainDefaultTransferFactory;
 import free.lucifer.jtwain.TwainIOMetadata;
 import free.lucifer.jtwain.TwainListener;
+import free.lucifer.jtwain.TwainNativeFileTransferFactory;
+import free.lucifer.jtwain.TwainScanProfile;
 import free.lucifer.jtwain.TwainScanner;
 import free.lucifer.jtwain.TwainSource;
+import free.lucifer.jtwain.image.TwainStripStore;
 import free.lucifer.jtwain.exceptions.TwainException;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -42,6 +45,7 @@ public class Source implements TwainListener {
     private ColorMode color = ColorMode.GRAYSCALE;
     private boolean autoDocumentFeeder = true;
     private boolean systemUI = true;
+    private FileFormat fileFormat = FileFormat.JPG;
 
     private String name;
 
@@ -93,6 +97,14 @@ public class Source implements TwainListener {
         this.systemUI = systemUI;
     }
 
+    public FileFormat getFileFormat() {
+        return fileFormat;
+    }
+
+    public void setFileFormat(FileFormat fileFormat) {
+        this.fileFormat = fileFormat;
+    }
+
     @Override
     public void update(TwainIOMetadata.Type type, TwainIOMetadata metadata) {
 //        System.out.println(type + " -> " + metadata.getState() + ": " + metadata.getStateStr());
@@ -101,6 +113,8 @@ public class Source implements TwainListener {
         } else if (type == TwainIOMetadata.ACQUIRED && metadata.getState() == 7) {
             pushImage(metadata.getImage());
             metadata.setImage(null);
+        } else if (type == TwainIOMetadata.WRITTEN && metadata.getState() == 7) {
+            fileList.add(metadata.getFile());
         } else if (type == TwainIOMetadata.STATECHANGE && metadata.getState() == 3 && metadata.getLastState() == 4) {
             jobDone();
         }
@@ -111,23 +125,41 @@ public class Source implements TwainListener {
             source.setShowProgressBar(true);
             source.setShowUI(systemUI);
 
+            switch (fileFormat) {
+                case BMP:
+                    source.setTransferFactory(new TwainNativeFileTransferFactory(Twain.TWFF_BMP));
+                    break;
+                case TIFF:
+                    source.setTransferFactory(new TwainNativeFileTransferFactory(Twain.TWFF_TIFF));
+                    break;
+                default:
+                    source.setTransferFactory(new TwainDefaultTransferFactory());
+                    break;
+            }
+
             if (!systemUI) {
 //                source.setShowUI(false);
-                source.setResolution(dpi);
-                TwainCapability pt = source.getCapability(Twain.ICAP_PIXELTYPE);
+                TwainScanProfile profile = new TwainScanProfile();
+                profile.setUnits(Twain.TWUN_INCHES);
+                profile.setResolution(dpi);
                 switch (color) {
                     case BW:
-                        pt.setCurrentValue(0);
+                        profile.setPixelType(Twain.TWPT_BW);
                         break;
                     case GRAYSCALE:
-                        pt.setCurrentValue(1);
+                        profile.setPixelType(Twain.TWPT_GRAY);
                         break;
                     case COLOR:
-                        pt.setCurrentValue(2);
+                        profile.setPixelType(Twain.TWPT_RGB);
                         break;
                 }
+                profile.setFeederEnabled(autoDocumentFeeder);
 
-                source.setCapability(Twain.CAP_FEEDERENABLED, autoDocumentFeeder ? 1 : 0);
+                for (TwainScanProfile.Result r : source.apply(profile).getResults()) {
+                    if (r.getOutcome() == TwainScanProfile.Outcome.FAILED) {
+                        Twain.signalException(getClass().getName() + ".setupSource:\n\t" + r);
+                    }
+                }
             }
         } catch (TwainException e) {
             e.printStackTrace();
@@ -144,6 +176,8 @@ public class Source implements TwainListener {
                     fileList.add(f);
                 } catch (IOException ex) {
 
+                } finally {
+                    TwainStripStore.recycle(image);
                 }
             }
         });
@@ -190,4 +224,10 @@ public class Source implements TwainListener {
         COLOR
     }
 
+    public static enum FileFormat {
+        JPG,
+        BMP,
+        TIFF
+    }
+
 }
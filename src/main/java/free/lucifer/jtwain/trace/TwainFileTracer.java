@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.trace;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends triplets as text lines to a file. Lines are buffered; with
+ * {@code autoFlush} every line is flushed, so the trace survives a driver
+ * taking the process down.
+ *
+ * @author lucifer
+ */
+public class TwainFileTracer implements TwainTracer, Closeable {
+
+    private final BufferedWriter out;
+    private final boolean autoFlush;
+    private final byte[] data;
+    private final StringBuilder line = new StringBuilder(256);
+
+    public TwainFileTracer(File file) throws IOException {
+        this(file, false, 1024);
+    }
+
+    /**
+     * @param maxData bytes of each buffer written
+     */
+    public TwainFileTracer(File file, boolean autoFlush, int maxData) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.US_ASCII));
+        this.autoFlush = autoFlush;
+        this.data = new byte[maxData];
+    }
+
+    @Override
+    public synchronized void trace(int destination, int dg, int dat, int msg, int rc, Object data, long nanos) {
+        int len = TwainTracer.copyData(data, this.data);
+        line.setLength(0);
+        line.append(System.currentTimeMillis()).append(' ');
+        TwainTraceFormat.append(line, destination, dg, dat, msg, rc, nanos, this.data, len).append('\n');
+        try {
+            out.append(line);
+            if (autoFlush) {
+                out.flush();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+}
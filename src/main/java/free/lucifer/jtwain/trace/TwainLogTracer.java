@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.trace;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes triplets as text lines to a java.util.logging logger, by default
+ * {@code free.lucifer.jtwain.trace} at FINE. Nothing is formatted while the
+ * level is disabled.
+ *
+ * @author lucifer
+ */
+public class TwainLogTracer implements TwainTracer {
+
+    private final Logger logger;
+    private final Level level;
+    private final byte[] data;
+
+    public TwainLogTracer() {
+        this(Logger.getLogger("free.lucifer.jtwain.trace"), Level.FINE, 256);
+    }
+
+    /**
+     * @param maxData bytes of each buffer logged
+     */
+    public TwainLogTracer(Logger logger, Level level, int maxData) {
+        this.logger = logger;
+        this.level = level;
+        this.data = new byte[maxData];
+    }
+
+    @Override
+    public synchronized void trace(int destination, int dg, int dat, int msg, int rc, Object data, long nanos) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        int len = TwainTracer.copyData(data, this.data);
+        logger.log(level, TwainTraceFormat.append(new StringBuilder(64 + len * 2), destination, dg, dat, msg, rc, nanos, this.data, len).toString());
+    }
+
+}
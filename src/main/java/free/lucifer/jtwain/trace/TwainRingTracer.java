@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Keeps the last triplets as fixed-size binary records in a preallocated
+ * buffer, tracing allocates nothing. Meant to stay on in production and be
+ * dumped when something goes wrong.
+ * <p>
+ * Records are little-endian: time (long, System.nanoTime), destination
+ * (int), dg (int), dat, msg, rc (short each), data length (short), call
+ * duration in nanoseconds (long), then {@code maxData} bytes of the buffer.
+ *
+ * @author lucifer
+ */
+public class TwainRingTracer implements TwainTracer {
+
+    public static final int HEADER_SIZE = 32;
+
+    private final int capacity;
+    private final int maxData;
+    private final int recordSize;
+    private final ByteBuffer ring;
+    private final byte[] data;
+    private long count;
+
+    public TwainRingTracer() {
+        this(1024, 64);
+    }
+
+    /**
+     * @param capacity records kept
+     * @param maxData bytes of each buffer kept
+     */
+    public TwainRingTracer(int capacity, int maxData) {
+        this.capacity = capacity;
+        this.maxData = Math.min(maxData, Short.MAX_VALUE);
+        this.recordSize = HEADER_SIZE + this.maxData;
+        this.ring = ByteBuffer.allocate(capacity * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.data = new byte[this.maxData];
+    }
+
+    @Override
+    public synchronized void trace(int destination, int dg, int dat, int msg, int rc, Object data, long nanos) {
+        int len = TwainTracer.copyData(data, this.data);
+        int pos = (int) (count % capacity) * recordSize;
+        ring.putLong(pos, System.nanoTime());
+        ring.putInt(pos + 8, destination);
+        ring.putInt(pos + 12, dg);
+        ring.putShort(pos + 16, (short) dat);
+        ring.putShort(pos + 18, (short) msg);
+        ring.putShort(pos + 20, (short) rc);
+        ring.putShort(pos + 22, (short) len);
+        ring.putLong(pos + 24, nanos);
+        System.arraycopy(this.data, 0, ring.array(), pos + HEADER_SIZE, len);
+        count++;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * @return triplets traced since creation or {@link #clear()}
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return records currently kept
+     */
+    public synchronized int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    public synchronized void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return kept records, oldest first
+     */
+    public synchronized byte[] snapshot() {
+        int n = size();
+        byte[] out = new byte[n * recordSize];
+        int first = (int) ((count - n) % capacity);
+        for (int i = 0; i < n; i++) {
+            ByteBuffer b = ring.duplicate();
+            b.position(((first + i) % capacity) * recordSize);
+            b.get(out, i * recordSize, recordSize);
+        }
+        return out;
+    }
+
+    public void writeTo(WritableByteChannel ch) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(snapshot());
+        while (b.hasRemaining()) {
+            ch.write(b);
+        }
+    }
+
+    /**
+     * Appends the kept records as text lines, oldest first.
+     */
+    public void print(Appendable out) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(snapshot()).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] bytes = b.array();
+        StringBuilder line = new StringBuilder(256);
+        for (int pos = 0; pos < bytes.length; pos += recordSize) {
+            line.setLength(0);
+            TwainTraceFormat.append(line, b.getInt(pos + 8), b.getInt(pos + 12), b.getShort(pos + 16), b.getShort(pos + 18), b.getShort(pos + 20), b.getLong(pos + 24), bytes, 0);
+            int len = b.getShort(pos + 22);
+            if (len > 0) {
+                line.append(" data=");
+                TwainTraceFormat.appendHex(line, bytes, pos + HEADER_SIZE, len);
+            }
+            out.append(line).append('\n');
+        }
+    }
+
+}
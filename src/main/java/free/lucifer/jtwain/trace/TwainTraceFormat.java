@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.trace;
+
+/**
+ * One line per triplet, shared by the text tracers:
+ * {@code src=1 dg=0x1 dat=0x1 msg=0x2 rc=0 t=12.3us data=0101ffff...}.
+ *
+ * @author lucifer
+ */
+public class TwainTraceFormat {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private TwainTraceFormat() {
+    }
+
+    public static StringBuilder append(StringBuilder sb, int destination, int dg, int dat, int msg, int rc, long nanos, byte[] data, int length) {
+        sb.append("src=").append(destination);
+        sb.append(" dg=0x").append(Integer.toHexString(dg));
+        sb.append(" dat=0x").append(Integer.toHexString(dat & 0xFFFF));
+        sb.append(" msg=0x").append(Integer.toHexString(msg & 0xFFFF));
+        sb.append(" rc=").append(rc);
+        sb.append(" t=").append(nanos / 1000).append('.').append(nanos / 100 % 10).append("us");
+        if (length > 0) {
+            sb.append(" data=");
+            appendHex(sb, data, 0, length);
+        }
+        return sb;
+    }
+
+    public static StringBuilder appendHex(StringBuilder sb, byte[] data, int offset, int length) {
+        sb.ensureCapacity(sb.length() + length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            sb.append(HEX[(data[i] >> 4) & 0xF]).append(HEX[data[i] & 0xF]);
+        }
+        return sb;
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.trace;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * Receives every DSM triplet sent through
+ * {@link free.lucifer.jtwain.Twain#setTracer(TwainTracer) Twain}, after the
+ * call returned. Without a tracer the calls cost one null check. Tracers are
+ * called on the thread making the call, usually the message pump, and must
+ * not call into TWAIN themselves.
+ *
+ * @author lucifer
+ */
+public interface TwainTracer {
+
+    /**
+     * Destination id of triplets sent to the source manager.
+     */
+    int SOURCE_MANAGER = 0;
+
+    /**
+     * @param destination id of the source, or {@link #SOURCE_MANAGER}
+     * @param data buffer passed with the triplet, as filled by the call; a
+     * byte array, a JNA structure or pointer, or null
+     * @param nanos time spent in the call
+     */
+    void trace(int destination, int dg, int dat, int msg, int rc, Object data, long nanos);
+
+    /**
+     * Copies the bytes of a triplet buffer, byte arrays and JNA structures;
+     * raw pointers and other objects have no known length and give 0.
+     *
+     * @return bytes copied, at most {@code dst.length}
+     */
+    static int copyData(Object data, byte[] dst) {
+        if (data instanceof byte[]) {
+            byte[] src = (byte[]) data;
+            int len = Math.min(src.length, dst.length);
+            System.arraycopy(src, 0, dst, 0, len);
+            return len;
+        }
+        if (data instanceof Structure) {
+            Structure s = (Structure) data;
+            int len = Math.min(s.size(), dst.length);
+            s.getPointer().read(0, dst, 0, len);
+            return len;
+        }
+        return 0;
+    }
+
+}
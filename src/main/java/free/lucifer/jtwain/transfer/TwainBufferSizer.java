@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the DAT_IMAGEMEMXFER buffer size. In adaptive mode every size from
+ * the preferred one doubling up to the source maximum is tried once per
+ * device, the throughput of each page is recorded, and afterwards the
+ * fastest size is used. Results are kept per device for the life of the
+ * process; {@link #getBestSize(String)} and {@link #setBestSize(String, int)}
+ * allow an application to persist them.
+ *
+ * @author lucifer
+ */
+public class TwainBufferSizer {
+
+    public enum Mode {
+        /**
+         * size set on the source, clamped to the source limits
+         */
+        FIXED,
+        /**
+         * the source preferred size
+         */
+        PREFERRED,
+        /**
+         * measured per device
+         */
+        ADAPTIVE
+    }
+
+    private static final int MIN_SIZE = 64 << 10;
+
+    private static final Map<String, Device> devices = new HashMap<>();
+    private static int maxSize = 8 << 20;
+
+    /**
+     * Largest size tried when the source puts no limit on the buffer.
+     */
+    public static synchronized void setMaxSize(int size) {
+        maxSize = size;
+    }
+
+    public static synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public static int clamp(int size, int min, int max) {
+        if (min > 0 && size < min) {
+            size = min;
+        }
+        if (max > 0 && size > max) {
+            size = max;
+        }
+        return size;
+    }
+
+    /**
+     * @return the next untried size within the source limits, or the fastest
+     * one once all were tried. Sizes the limits would change are skipped.
+     */
+    public static synchronized int choose(String device, int min, int max, int preferred) {
+        Device d = devices.get(device);
+        if (d == null) {
+            d = new Device(candidates(min, max, preferred));
+            devices.put(device, d);
+        }
+        int size = d.next(min, max);
+        if (size <= 0) {
+            size = preferred > 0 ? preferred : Math.max(min, MIN_SIZE);
+        }
+        return clamp(size, min, max);
+    }
+
+    public static synchronized void record(String device, int size, long bytes, long nanos) {
+        record(device, size, size, bytes, nanos);
+    }
+
+    /**
+     * @param chosen size returned by {@link #choose}
+     * @param used size the buffer actually had; when the page fitted in a
+     * smaller buffer every candidate from that size up would have received it
+     * the same way and all of them take the measurement
+     */
+    public static synchronized void record(String device, int chosen, int used, long bytes, long nanos) {
+        Device d = devices.get(device);
+        if (d != null && bytes > 0 && nanos > 0) {
+            d.record(chosen, used, (double) bytes / nanos);
+        }
+    }
+
+    /**
+     * @return fastest size measured so far, or -1
+     */
+    public static synchronized int getBestSize(String device) {
+        Device d = devices.get(device);
+        return d == null ? -1 : d.best();
+    }
+
+    /**
+     * Uses the size for the device from now on without measuring.
+     */
+    public static synchronized void setBestSize(String device, int size) {
+        devices.put(device, new Device(new int[]{size}, size));
+    }
+
+    public static synchronized void reset(String device) {
+        devices.remove(device);
+    }
+
+    public static synchronized void clear() {
+        devices.clear();
+    }
+
+    static int[] candidates(int min, int max, int preferred) {
+        int lo = preferred > 0 ? preferred : Math.max(min, MIN_SIZE);
+        int hi = max > 0 ? Math.min(max, maxSize) : maxSize;
+        hi = Math.max(hi, lo);
+        int count = 1;
+        for (long s = (long) lo * 2; s <= hi; s *= 2) {
+            count++;
+        }
+        boolean tail = ((long) lo << (count - 1)) != hi;
+        int[] sizes = new int[tail ? count + 1 : count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = lo << i;
+        }
+        if (tail) {
+            sizes[count] = hi;
+        }
+        return sizes;
+    }
+
+    private static class Device {
+
+        static final double SKIPPED = -1;
+
+        final int[] sizes;
+        final double[] rates;
+        final int fixed;
+
+        Device(int[] sizes) {
+            this(sizes, -1);
+        }
+
+        Device(int[] sizes, int fixed) {
+            this.sizes = sizes;
+            this.rates = new double[sizes.length];
+            this.fixed = fixed;
+        }
+
+        int next(int min, int max) {
+            if (fixed > 0) {
+                return fixed;
+            }
+            for (int i = 0; i < sizes.length; i++) {
+                if (rates[i] == 0) {
+                    if (clamp(sizes[i], min, max) == sizes[i]) {
+                        return sizes[i];
+                    }
+                    rates[i] = SKIPPED;
+                }
+            }
+            return best();
+        }
+
+        int best() {
+            if (fixed > 0) {
+                return fixed;
+            }
+            int best = -1;
+            double rate = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                if (rates[i] > rate) {
+                    rate = rates[i];
+                    best = sizes[i];
+                }
+            }
+            return best;
+        }
+
+        void record(int chosen, int used, double rate) {
+            for (int i = 0; i < sizes.length; i++) {
+                if (rates[i] != SKIPPED && (used < chosen ? sizes[i] >= used : sizes[i] == chosen)) {
+                    rates[i] = rates[i] == 0 ? rate : rates[i] * 0.7 + rate * 0.3;
+                }
+            }
+        }
+    }
+}
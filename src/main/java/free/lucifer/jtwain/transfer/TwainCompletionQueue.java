@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs file transfer completions, landing the file and notifying listeners,
+ * on worker threads so the message pump can end the transfer and start the
+ * next page at once. The queue is bounded: when it is full the pump waits for
+ * a free slot instead of piling up pages. With one thread, the default, pages
+ * complete in transfer order.
+ * <p>
+ * One queue may serve several sources, set with
+ * {@link free.lucifer.jtwain.TwainSource#setCompletionQueue(TwainCompletionQueue)}.
+ *
+ * @author lucifer
+ */
+public class TwainCompletionQueue {
+
+    private final ThreadPoolExecutor executor;
+    private final Queue<Future<File>> pending = new ConcurrentLinkedQueue<>();
+
+    public TwainCompletionQueue() {
+        this(1, 16);
+    }
+
+    /**
+     * @param threads worker threads
+     * @param capacity pages waiting for a worker before the pump blocks
+     */
+    public TwainCompletionQueue(int threads, int capacity) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "twain-completion-worker");
+                t.setDaemon(true);
+                return t;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                if (e.isShutdown()) {
+                    throw new RejectedExecutionException("Completion queue is shut down");
+                }
+                try {
+                    e.getQueue().put(r);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(ie);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return future of the page, done once listeners have been notified,
+     * holding the file they received
+     */
+    public Future<File> submit(Callable<File> completion) {
+        Future<File> f = executor.submit(completion);
+        pending.add(f);
+        prune();
+        return f;
+    }
+
+    /**
+     * @return pages submitted and not yet completed
+     */
+    public int getPendingCount() {
+        prune();
+        return pending.size();
+    }
+
+    /**
+     * Waits until every page submitted so far has completed.
+     */
+    public void flush() throws InterruptedException {
+        for (Future<File> f; (f = pending.peek()) != null;) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                // the completion has signalled its failure to listeners
+            }
+            pending.remove(f);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void prune() {
+        for (Future<File> f; (f = pending.peek()) != null && f.isDone();) {
+            pending.remove(f);
+        }
+    }
+
+}
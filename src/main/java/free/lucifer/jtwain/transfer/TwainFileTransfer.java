@@ -20,14 +20,30 @@ import free.lucifer.jtwain.TwainSource;
 import free.lucifer.jtwain.exceptions.TwainException;
 import free.lucifer.jtwain.utils.TwainUtils;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
+ * File transfer. With {@link Twain#TWFF_TIFFMULTI} the whole feeder run goes
+ * into one multi-page TIFF: every page is set up with the same file name so the
+ * source appends to it, listeners get a
+ * {@link free.lucifer.jtwain.TwainIOMetadata#PAGE} event per page and one
+ * {@link free.lucifer.jtwain.TwainIOMetadata#BATCH} event once the source has
+ * closed the file.
  *
  * @author lucifer
  */
 public class TwainFileTransfer extends TwainTransfer {
 
+    private static TwainFileTransferNamer defaultNamer;
+
     protected File file;
+    private int pages;
+    private final List<Future<File>> completions = new ArrayList<>();
+    private boolean jobDone;
 
     public TwainFileTransfer(TwainSource source) {
         super(source);
@@ -38,24 +54,49 @@ public class TwainFileTransfer extends TwainTransfer {
         return source.getImageFileFormat();
     }
 
+    public boolean isBatch() {
+        return getImageFileFormat() == Twain.TWFF_TIFFMULTI;
+    }
+
+    /**
+     * @return pages written to the current batch file
+     */
+    public int getPageCount() {
+        return pages;
+    }
+
     public void setFile(File f) {
         file = f;
     }
 
-    public File getFile() {
+    /**
+     * Pages go to ~/mmsc/tmp unless the source has a
+     * {@link TwainSource#setFileNamer(TwainFileTransferNamer) file namer}.
+     */
+    public File getFile() throws TwainException {
         if (file == null) {
-            String ext = Twain.ImageFileFormatExts[getImageFileFormat()];
             try {
-                File dir = new File(System.getProperty("user.home"), "mmsc/tmp");
-                dir.mkdirs();
-                file = File.createTempFile("mmsctwain", ext, dir);
-            } catch (Exception e) {
-                file = new File("c:\\mmsctwain." + ext);
+                file = getNamer().next(source, Twain.ImageFileFormatExts[getImageFileFormat()]);
+            } catch (IOException e) {
+                throw new TwainException(getClass().getName() + ".getFile:\n\tCannot create file for file transfer", e);
             }
         }
         return file;
     }
 
+    protected TwainFileTransferNamer getNamer() throws IOException {
+        TwainFileTransferNamer namer = source.getFileNamer();
+        return namer != null ? namer : getDefaultNamer();
+    }
+
+    private static synchronized TwainFileTransferNamer getDefaultNamer() throws IOException {
+        if (defaultNamer == null) {
+            File dir = new File(System.getProperty("user.home"), "mmsc/tmp");
+            defaultNamer = new TwainSequenceFileNamer(dir, dir, "mmsctwain");
+        }
+        return defaultNamer;
+    }
+
     @Override
     public void initiate() throws TwainException {
         super.initiate();
@@ -74,11 +115,84 @@ public class TwainFileTransfer extends TwainTransfer {
 
     @Override
     public void finish() throws TwainException {
-        Twain.transferFileImage(file);
+        if (isBatch()) {
+            pages++;
+            Twain.transferFilePage(file, pages);
+            return;
+        }
+        deliver(file, 0);
+    }
+
+    @Override
+    public void complete() throws TwainException {
+        if (!isBatch() || pages == 0) {
+            jobDone = true;
+            return;
+        }
+        try {
+            deliver(file, pages);
+        } finally {
+            jobDone = true;
+            pages = 0;
+            setFile(null);
+        }
+    }
+
+    /**
+     * @return futures of the pages of the last job handed to the source's
+     * {@link TwainCompletionQueue}, in transfer order
+     */
+    public List<Future<File>> getCompletions() {
+        return new ArrayList<>(completions);
+    }
+
+    private void deliver(final File staged, final int batch) {
+        TwainCompletionQueue queue = source.getCompletionQueue();
+        if (queue == null) {
+            try {
+                land(staged, batch);
+            } catch (TwainException e) {
+                Twain.signalException(e.getMessage());
+            }
+            return;
+        }
+        if (jobDone) {
+            completions.clear();
+            jobDone = false;
+        }
+        completions.add(queue.submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                try {
+                    return land(staged, batch);
+                } catch (TwainException e) {
+                    Twain.signalException(e.getMessage());
+                    throw e;
+                }
+            }
+        }));
+    }
+
+    private File land(File staged, int batch) throws TwainException {
+        File landed;
+        try {
+            landed = getNamer().land(staged);
+        } catch (IOException e) {
+            throw new TwainException(getClass().getName() + ".deliver:\n\t" + e.getMessage(), e);
+        }
+        if (batch > 0) {
+            Twain.transferFileBatch(landed, batch);
+        } else {
+            Twain.transferFileImage(landed);
+        }
+        return landed;
     }
 
     @Override
     public void cancel() throws TwainException {
+        if (isBatch() && pages > 0) {
+            return;
+        }
         if ((file != null) && file.exists()) {
             file.delete();
         }
@@ -86,7 +200,9 @@ public class TwainFileTransfer extends TwainTransfer {
 
     @Override
     public void cleanup() throws TwainException {
-        setFile(null);
+        if (!isBatch()) {
+            setFile(null);
+        }
     }
 
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import free.lucifer.jtwain.TwainSource;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Names the files that file transfers write pages to. A page is written to
+ * the file returned by {@link #next(TwainSource, String)} and handed to
+ * {@link #land(File)} once it is complete, before listeners see it.
+ *
+ * @author lucifer
+ */
+public interface TwainFileTransferNamer {
+
+    /**
+     * @param extension file extension including the dot
+     * @return file the next page is written to, its directory must exist
+     */
+    File next(TwainSource source, String extension) throws IOException;
+
+    /**
+     * Moves a completely written page into its final place.
+     *
+     * @return location listeners receive
+     */
+    File land(File file) throws IOException;
+
+}
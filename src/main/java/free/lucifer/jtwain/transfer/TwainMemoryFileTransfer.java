@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.TwainSource;
+import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.image.TwainCompressedAssembler;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Memory transfer that passes JPEG and CCITT G4 compressed strips straight to
+ * a JPEG or TIFF file without decoding them. Listeners receive a
+ * {@link free.lucifer.jtwain.TwainIOMetadata#WRITTEN} event per page.
+ * Uncompressed pages are still delivered as images.
+ *
+ * @author lucifer
+ */
+public class TwainMemoryFileTransfer extends TwainMemoryTransfer {
+
+    protected File file;
+
+    public TwainMemoryFileTransfer(TwainSource source) {
+        super(source);
+        setAssemble(true);
+        file = null;
+    }
+
+    public TwainMemoryFileTransfer(TwainSource source, boolean direct) {
+        super(source, direct);
+        setAssemble(true);
+        file = null;
+    }
+
+    public void setFile(File f) {
+        file = f;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    protected File createFile(String extension) throws IOException {
+        TwainFileTransferNamer namer = source.getFileNamer();
+        return namer != null ? namer.next(source, extension) : File.createTempFile("twain", extension);
+    }
+
+    @Override
+    protected boolean isDecodingCompressed() {
+        return false;
+    }
+
+    @Override
+    protected void openCompressed(TwainCompressedAssembler compressed) throws IOException {
+        if (file == null) {
+            file = createFile(compressed.getExtension());
+        }
+        compressed.open(file);
+    }
+
+    @Override
+    protected void finishCompressed(TwainCompressedAssembler compressed) throws TwainException, IOException {
+        compressed.close();
+        TwainFileTransferNamer namer = source.getFileNamer();
+        Twain.transferMemoryFile(namer != null ? namer.land(file) : file);
+    }
+
+    @Override
+    public void cancel() throws TwainException {
+        super.cancel();
+        if ((file != null) && file.exists()) {
+            file.delete();
+        }
+    }
+
+    @Override
+    public void cleanup() throws TwainException {
+        super.cleanup();
+        setFile(null);
+    }
+
+}
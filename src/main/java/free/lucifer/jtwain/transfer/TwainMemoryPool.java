@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import com.sun.jna.Pointer;
+import free.lucifer.jtwain.Twain;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Global memory handles for memory transfers, kept by size so strips and
+ * pages of the same source reuse the buffer the DS fills instead of going
+ * through GlobalAlloc/GlobalFree each time. At most {@link #getMaxPerSize()}
+ * handles are kept per size and {@link #getMaxIdleBytes()} in total; past that
+ * the least recently released handles are freed.
+ *
+ * @author lucifer
+ */
+public class TwainMemoryPool {
+
+    private static final Map<Integer, Deque<Idle>> pool = new HashMap<>();
+    private static final Deque<Idle> order = new ArrayDeque<>();
+    private static int maxPerSize = 4;
+    private static long maxIdleBytes = 64L << 20;
+    private static long idleBytes;
+
+    public static synchronized void setMaxPerSize(int max) {
+        maxPerSize = max;
+    }
+
+    public static synchronized int getMaxPerSize() {
+        return maxPerSize;
+    }
+
+    /**
+     * Caps the memory held by idle handles across all sizes. Takes effect on
+     * the next release.
+     */
+    public static synchronized void setMaxIdleBytes(long max) {
+        maxIdleBytes = max;
+    }
+
+    public static synchronized long getMaxIdleBytes() {
+        return maxIdleBytes;
+    }
+
+    public static Pointer acquire(int size) {
+        synchronized (TwainMemoryPool.class) {
+            Deque<Idle> idle = pool.get(size);
+            if (idle != null && !idle.isEmpty()) {
+                Idle entry = idle.pop();
+                order.remove(entry);
+                idleBytes -= size;
+                return entry.handle;
+            }
+        }
+        return Twain.nnew(size);
+    }
+
+    public static void release(int size, Pointer handle) {
+        if (handle == null || handle == Pointer.NULL) {
+            return;
+        }
+        List<Pointer> evicted = new ArrayList<>();
+        synchronized (TwainMemoryPool.class) {
+            Deque<Idle> idle = pool.get(size);
+            if (idle == null) {
+                idle = new ArrayDeque<>();
+                pool.put(size, idle);
+            }
+            if (idle.size() < maxPerSize && size <= maxIdleBytes) {
+                while (idleBytes + size > maxIdleBytes) {
+                    Idle oldest = order.pollLast();
+                    pool.get(oldest.size).remove(oldest);
+                    idleBytes -= oldest.size;
+                    evicted.add(oldest.handle);
+                }
+                Idle entry = new Idle(size, handle);
+                idle.push(entry);
+                order.push(entry);
+                idleBytes += size;
+                handle = null;
+            }
+        }
+        for (Pointer h : evicted) {
+            Twain.ndelete(h);
+        }
+        if (handle != null) {
+            Twain.ndelete(handle);
+        }
+    }
+
+    /**
+     * Frees every idle handle. Handles currently held by a transfer are freed
+     * when released after the pool is full.
+     */
+    public static synchronized void clear() {
+        for (Idle entry : order) {
+            Twain.ndelete(entry.handle);
+        }
+        order.clear();
+        pool.clear();
+        idleBytes = 0;
+    }
+
+    public static synchronized int getIdleCount() {
+        return order.size();
+    }
+
+    public static synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    private static class Idle {
+
+        final int size;
+        final Pointer handle;
+
+        Idle(int size, Pointer handle) {
+            this.size = size;
+            this.handle = handle;
+        }
+    }
+}
@@ -15,10 +15,20 @@
  */
 package free.lucifer.jtwain.transfer;
 
+import com.sun.jna.Pointer;
 import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.TwainImageInfo;
 import free.lucifer.jtwain.TwainSource;
 import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.image.TwainCompressedAssembler;
+import free.lucifer.jtwain.image.TwainPaletteCache;
+import free.lucifer.jtwain.image.TwainStripAssembler;
+import free.lucifer.jtwain.libs.Win32Twain;
 import free.lucifer.jtwain.utils.TwainUtils;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  *
@@ -26,15 +36,58 @@ import free.lucifer.jtwain.utils.TwainUtils;
  */
 public class TwainMemoryTransfer extends TwainTransfer {
 
-    private final byte[] imx = new byte[48];
+    private static final int BYTES_WRITTEN = 22;
+    protected static final int FIT_GRANULARITY = 64 << 10;
+
+    private final Win32Twain.TW_IMAGEMEMXFER imx = new Win32Twain.TW_IMAGEMEMXFER();
+    private Pointer memory;
+    private int memorySize;
+    private long bytes;
+    private long started;
+    private int chosenSize;
+    private final boolean direct;
+    private boolean assemble;
+    private TwainStripAssembler assembler;
+    private TwainCompressedAssembler compressed;
     private Info info;
+    private TwainStripQueue queue;
 
     protected int minBufSize = -1;
     protected int maxBufSize = -1;
     protected int preferredSize = -1;
 
     public TwainMemoryTransfer(TwainSource source) {
+        this(source, false);
+    }
+
+    /**
+     * @param direct deliver strips as a read-only view over the locked global
+     * memory instead of copying each one into the {@link Info} array first.
+     * Ignored when the source has a {@link TwainStripQueue}
+     */
+    public TwainMemoryTransfer(TwainSource source, boolean direct) {
         super(source);
+        this.direct = direct;
+        this.assemble = source.isAssembleMemoryPages();
+        imx.checkLayout();
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @param assemble build the page from the strips and deliver it as an
+     * image once the transfer is done, in addition to the per strip events.
+     * Uncompressed, JPEG and CCITT G4 strips are supported. Defaults to
+     * {@link TwainSource#isAssembleMemoryPages()}
+     */
+    public void setAssemble(boolean assemble) {
+        this.assemble = assemble;
+    }
+
+    public boolean isAssemble() {
+        return assemble;
     }
 
     protected void retrieveBufferSizes() throws TwainException {
@@ -52,74 +105,397 @@ public class TwainMemoryTransfer extends TwainTransfer {
     public void initiate() throws TwainException {
         super.initiate();
         retrieveBufferSizes();
-        Twain.nnew(imx, preferredSize);
-        byte[] buf = new byte[preferredSize];
-        info = new Info(imx, buf);
+        prepare();
+        chosenSize = chooseBufferSize();
+        memorySize = fitBufferSize(chosenSize);
+        memory = TwainMemoryPool.acquire(memorySize);
+        Twain.nbind(imx, memory, memorySize);
+        if (info == null || info.getSize() != memorySize) {
+            info = new Info(memorySize);
+        }
+        queue = source.getStripQueue();
+        if (queue != null) {
+            queue.start(memorySize, new TwainStripQueue.Consumer() {
+                @Override
+                public void accept(Info strip) throws TwainException {
+                    Twain.transferMemoryBuffer(strip);
+                    assemble(strip);
+                }
+            });
+        }
+        bytes = 0;
+        started = System.nanoTime();
         while (true) {
-            source.call(Twain.DG_IMAGE, Twain.DAT_IMAGEMEMXFER, Twain.MSG_GET, imx);
-            int bytesWritten = TwainUtils.getINT32(imx, 22);
-            int bytesCopied = Twain.ncopy(buf, imx, bytesWritten);
+            source.call(Twain.DG_IMAGE, Twain.DAT_IMAGEMEMXFER, Twain.MSG_GET, imx.getPointer());
+            receive();
+        }
+    }
+
+    protected int chooseBufferSize() {
+        switch (source.getBufferMode()) {
+            case FIXED:
+                return source.getBufferSize() > 0 ? TwainBufferSizer.clamp(source.getBufferSize(), minBufSize, maxBufSize) : preferredSize;
+            case ADAPTIVE:
+                return TwainBufferSizer.choose(source.getDeviceKey(), minBufSize, maxBufSize, preferredSize);
+            default:
+                return preferredSize;
+        }
+    }
+
+    /**
+     * Shrinks the buffer to the page when the image info gives its exact size,
+     * so a small page is received in one buffer sized once instead of a pooled
+     * one several times larger. Rows are taken as DWORD aligned, which covers
+     * sources that pad them. The fitted size is rounded up to a multiple of
+     * {@link #FIT_GRANULARITY}, so pages of slightly different sizes share
+     * pooled handles.
+     */
+    protected int fitBufferSize(int size) {
+        long page = imageInfo != null ? imageInfo.getImageSize(4) : -1;
+        if (page <= 0 || page >= size) {
+            return size;
+        }
+        long fitted = (page + FIT_GRANULARITY - 1) / FIT_GRANULARITY * FIT_GRANULARITY;
+        return (int) Math.min(size, Math.max(fitted, minBufSize));
+    }
+
+    @Override
+    public void finish() throws TwainException {
+        try {
+            receive();
+            if (queue != null) {
+                queue.finish();
+            }
+        } catch (TwainException e) {
+            if (queue != null) {
+                queue.abort();
+            }
+            Twain.signalException(getClass().getName() + ".finish:\n\t" + e.getMessage());
+            return;
+        } finally {
+            queue = null;
+        }
+        if (source.getBufferMode() == TwainBufferSizer.Mode.ADAPTIVE) {
+            TwainBufferSizer.record(source.getDeviceKey(), chosenSize, memorySize, bytes, System.nanoTime() - started);
+        }
+        if (assembler != null) {
+            Twain.transferMemoryImage(assembler.getImage());
+        } else if (compressed != null) {
+            if (compressed.getHeight() < 0) {
+                try {
+                    TwainImageInfo ii = new TwainImageInfo(source);
+                    ii.get();
+                    compressed.setHeight(ii.getImageLength());
+                } catch (TwainException e) {
+                    Twain.signalException(getClass().getName() + ".finish:\n\tCannot read page length: " + e.getMessage());
+                }
+            }
+            try {
+                finishCompressed(compressed);
+            } catch (TwainException | IOException e) {
+                Twain.signalException(getClass().getName() + ".finish:\n\t" + e.getMessage());
+            }
+        }
+    }
+
+    protected void prepare() throws TwainException {
+        assembler = null;
+        compressed = null;
+        if (!assemble || imageInfo == null) {
+            return;
+        }
+        TwainImageInfo ii = imageInfo;
+        if (TwainCompressedAssembler.isSupported(ii.getCompression())) {
+            if (isDecodingCompressed() && !TwainCompressedAssembler.isDecodable(ii.getCompression())) {
+                throw new TwainException(getClass().getName() + ".prepare:\n\tCCITT G4 page cannot be decoded, no ImageIO TIFF reader registered; use a Java 9+ runtime or an ImageIO TIFF plugin, or turn off setAssembleMemoryPages");
+            }
+            compressed = new TwainCompressedAssembler(ii.getCompression(), ii.getImageWidth(), ii.getImageLength(), ii.getXResolution(), ii.getYResolution());
+            try {
+                openCompressed(compressed);
+            } catch (IOException e) {
+                throw new TwainException(getClass().getName() + ".prepare:\n\tCannot open file for compressed transfer", e);
+            }
+        } else if (ii.getCompression() == Twain.TWCP_NONE && !ii.isPlanar() && TwainStripAssembler.isSupported(ii.getBitsPerPixel(), ii.getPixelType())) {
+            IndexColorModel palette = null;
+            if (ii.getPixelType() == Twain.TWPT_PALETTE) {
+                try {
+                    palette = retrievePalette(ii.getBitsPerPixel());
+                } catch (TwainException e) {
+                    Twain.signalException(getClass().getName() + ".prepare:\n\tNo palette, page not assembled: " + e.getMessage());
+                    return;
+                }
+            }
+            assembler = new TwainStripAssembler(ii.getImageWidth(), ii.getImageLength(), ii.getBitsPerPixel(), ii.getPixelType());
+            assembler.setPalette(palette);
+            assembler.setVanilla(ii.getPixelType() != Twain.TWPT_PALETTE && retrievePixelFlavor() == Twain.TWPF_VANILLA);
+        }
+    }
+
+    /**
+     * Reads TW_PALETTE8 of the pending page: NumColors, PaletteType, then
+     * Index and three channels per color.
+     */
+    protected IndexColorModel retrievePalette(int bitsPerPixel) throws TwainException {
+        byte[] pal = new byte[4 + 256 * 4];
+        source.call(Twain.DG_IMAGE, Twain.DAT_PALETTE8, Twain.MSG_GET, pal);
+        int colors = Math.min(TwainUtils.getINT16(pal, 0) & 0xFFFF, 1 << bitsPerPixel);
+        if (colors <= 0) {
+            throw new TwainException(getClass().getName() + ".retrievePalette:\n\tEmpty palette");
+        }
+        boolean cmy = TwainUtils.getINT16(pal, 2) == Twain.TWPA_CMY;
+        byte[] quads = new byte[colors * 4];
+        for (int i = 0, off = 4; i < colors; i++, off += 4) {
+            int r = pal[off + 1];
+            int g = pal[off + 2];
+            int b = pal[off + 3];
+            quads[i * 4] = (byte) (cmy ? ~b : b);
+            quads[i * 4 + 1] = (byte) (cmy ? ~g : g);
+            quads[i * 4 + 2] = (byte) (cmy ? ~r : r);
+        }
+        return TwainPaletteCache.getColorModel(bitsPerPixel, quads);
+    }
+
+    /**
+     * @return ICAP_PIXELFLAVOR, TWPF_CHOCOLATE for sources without it
+     */
+    protected int retrievePixelFlavor() {
+        try {
+            return source.getCapability(Twain.ICAP_PIXELFLAVOR, Twain.MSG_GETCURRENT).intValue();
+        } catch (TwainException e) {
+            return Twain.TWPF_CHOCOLATE;
+        }
+    }
+
+    /**
+     * @return whether {@link #finishCompressed} decodes the page, in which case
+     * a compression ImageIO cannot read is rejected before the transfer starts
+     */
+    protected boolean isDecodingCompressed() {
+        return true;
+    }
+
+    /**
+     * Called before the first compressed strip arrives. Compressed pages are
+     * kept in memory and decoded by default.
+     */
+    protected void openCompressed(TwainCompressedAssembler compressed) throws IOException {
+    }
+
+    /**
+     * Called after the last compressed strip.
+     */
+    protected void finishCompressed(TwainCompressedAssembler compressed) throws TwainException, IOException {
+        Twain.transferMemoryImage(compressed.getImage());
+    }
+
+    private void receive() throws TwainException {
+        info.load(imx.getPointer());
+        bytes += info.getLength();
+        if (queue != null) {
+            Info strip = queue.claim();
+            strip.load(info);
+            Twain.ncopy(strip.getBuffer(), memory, strip.getLength());
+            queue.publish(strip);
+        } else if (direct) {
+            Pointer p = Twain.nlock(memory);
+            try {
+                info.attach(p.getByteBuffer(0, info.getLength()));
+                Twain.transferMemoryBuffer(info);
+                assemble(info);
+            } finally {
+                info.detach();
+                Twain.nunlock(memory);
+            }
+        } else {
+            int bytesWritten = info.getLength();
+            int bytesCopied = Twain.ncopy(info.getBuffer(), memory, bytesWritten);
             if (bytesCopied == bytesWritten) {
                 Twain.transferMemoryBuffer(info);
+                assemble(info);
             }
         }
     }
 
-    @Override
-    public void finish() throws TwainException {
-        int bytesWritten = TwainUtils.getINT32(imx, 22);
-        int bytesCopied = Twain.ncopy(info.getBuffer(), imx, bytesWritten);
-        if (bytesCopied == bytesWritten) {
-            Twain.transferMemoryBuffer(info);
+    private void assemble(Info strip) throws TwainException {
+        if (assembler != null) {
+            append(assembler, strip);
+        } else if (compressed != null) {
+            try {
+                compressed.append(strip.getByteBuffer());
+            } catch (IOException e) {
+                throw new TwainException(getClass().getName() + ".assemble:\n\t" + e.getMessage(), e);
+            }
+        }
+    }
+
+    static void append(TwainStripAssembler assembler, Info strip) throws TwainException {
+        assembler.append(strip.getByteBuffer(), strip.getLeft(), strip.getTop(), strip.getWidth(), strip.getHeight(), strip.getBytesPerRow());
+    }
+
+    /**
+     * Feeds one strip to an assembler the way a transfer does, without a data
+     * source: the strip fields are taken from a written TW_IMAGEMEMXFER and the
+     * data from already locked memory, copied into the Info array or attached
+     * as a direct view. Meant for benchmarks and tests.
+     *
+     * @param strip reused between calls, created with {@link Info#Info(int)}
+     * @param imx native TW_IMAGEMEMXFER, e.g. a written
+     * {@link Win32Twain.TW_IMAGEMEMXFER}
+     * @param data strip data, at least BytesWritten bytes
+     */
+    public static void append(TwainStripAssembler assembler, Info strip, Pointer imx, Pointer data, boolean direct) throws TwainException {
+        strip.load(imx);
+        if (direct) {
+            strip.attach(data.getByteBuffer(0, strip.getLength()));
+            try {
+                append(assembler, strip);
+            } finally {
+                strip.detach();
+            }
+        } else {
+            data.read(0, strip.getBuffer(), 0, strip.getLength());
+            append(assembler, strip);
         }
     }
 
     @Override
     public void cleanup() throws TwainException {
-        Twain.ndelete(imx);
+        if (queue != null) {
+            queue.abort();
+            queue = null;
+        }
+        TwainMemoryPool.release(memorySize, memory);
+        memory = null;
+        assembler = null;
+        if (compressed != null) {
+            try {
+                compressed.close();
+            } catch (IOException e) {
+            }
+            compressed = null;
+        }
     }
 
     public static class Info {
 
-        private byte[] imx;
+        private final int size;
         private byte[] buf;
-        private int len;
+        private ByteBuffer view;
+        private boolean copied;
+
+        private int compression;
+        private int bytesPerRow;
+        private int columns;
+        private int rows;
+        private int xOffset;
+        private int yOffset;
+        private int length;
+
+        /**
+         * @param size strip buffer size, the largest BytesWritten expected
+         */
+        public Info(int size) {
+            this.size = size;
+        }
+
+        /**
+         * Takes the strip fields from a TW_IMAGEMEMXFER, so the structure can be
+         * reused for the next strip while this one is still being consumed.
+         */
+        void load(Pointer imx) {
+            compression = imx.getShort(0);
+            bytesPerRow = imx.getInt(2);
+            columns = imx.getInt(6);
+            rows = imx.getInt(10);
+            xOffset = imx.getInt(14);
+            yOffset = imx.getInt(18);
+            length = imx.getInt(BYTES_WRITTEN);
+        }
+
+        void load(Info info) {
+            compression = info.compression;
+            bytesPerRow = info.bytesPerRow;
+            columns = info.columns;
+            rows = info.rows;
+            xOffset = info.xOffset;
+            yOffset = info.yOffset;
+            length = info.length;
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        void attach(ByteBuffer view) {
+            this.view = view.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            this.copied = false;
+        }
+
+        void detach() {
+            view = null;
+        }
 
-        Info(byte[] imx, byte[] buf) {
-            this.imx = imx;
-            this.buf = buf;
+        /**
+         * @return true while the strip is a view over native memory, i.e. inside
+         * the listener callback of a direct transfer
+         */
+        public boolean isDirect() {
+            return view != null;
         }
 
+        /**
+         * Strip data copied to the heap. For a direct transfer the copy is made
+         * on the first call in the callback.
+         */
         public byte[] getBuffer() {
+            if (buf == null) {
+                buf = new byte[size];
+            }
+            if (view != null && !copied) {
+                view.duplicate().get(buf, 0, view.remaining());
+                copied = true;
+            }
             return buf;
         }
 
+        /**
+         * Read-only little-endian view of the strip, {@link #getLength()}
+         * bytes. For a direct transfer it points into the locked global memory
+         * and must not be used after the listener returns.
+         */
+        public ByteBuffer getByteBuffer() {
+            if (view != null) {
+                return view.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return ByteBuffer.wrap(getBuffer(), 0, getLength()).slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
         public int getCompression() {
-            return TwainUtils.getINT16(imx, 0);
+            return compression;
         }
 
         public int getBytesPerRow() {
-            return TwainUtils.getINT32(imx, 2);
+            return bytesPerRow;
         }
 
         public int getWidth() {
-            return TwainUtils.getINT32(imx, 6);
+            return columns;
         }
 
         public int getHeight() {
-            return TwainUtils.getINT32(imx, 10);
+            return rows;
         }
 
         public int getTop() {
-            return TwainUtils.getINT32(imx, 14);
+            return yOffset;
         }
 
         public int getLeft() {
-            return TwainUtils.getINT32(imx, 18);
+            return xOffset;
         }
 
         public int getLength() {
-            return TwainUtils.getINT32(imx, 22);
+            return length;
         }
 
     }
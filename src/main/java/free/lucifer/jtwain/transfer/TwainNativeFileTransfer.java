@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.TwainSource;
+import free.lucifer.jtwain.exceptions.TwainException;
+import free.lucifer.jtwain.image.TwainDibWriter;
+import java.io.File;
+
+/**
+ * Native transfer that streams the DIB straight to a BMP or TIFF file instead
+ * of building an image. Listeners receive a
+ * {@link free.lucifer.jtwain.TwainIOMetadata#WRITTEN} event per page.
+ *
+ * @author lucifer
+ */
+public class TwainNativeFileTransfer extends TwainNativeTransfer {
+
+    protected File file;
+    protected int format;
+
+    public TwainNativeFileTransfer(TwainSource source, int format) {
+        super(source);
+        this.format = format == Twain.TWFF_TIFF ? Twain.TWFF_TIFF : Twain.TWFF_BMP;
+        file = null;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public void setFile(File f) {
+        file = f;
+    }
+
+    public File getFile() throws TwainException {
+        if (file == null) {
+            try {
+                TwainFileTransferNamer namer = source.getFileNamer();
+                file = namer != null ? namer.next(source, TwainDibWriter.getExtension(format)) : File.createTempFile("twain", TwainDibWriter.getExtension(format));
+            } catch (Exception e) {
+                throw new TwainException(getClass().getName() + ".getFile:\n\tCannot create file for native transfer", e);
+            }
+        }
+        return file;
+    }
+
+    @Override
+    public void finish() throws TwainException {
+        Twain.transferNativeFile(getHandle(), getFile(), format, source.getFileNamer());
+    }
+
+    @Override
+    public void cancel() throws TwainException {
+        if ((file != null) && file.exists()) {
+            file.delete();
+        }
+    }
+
+    @Override
+    public void cleanup() throws TwainException {
+        setFile(null);
+    }
+
+}
@@ -38,10 +38,13 @@ public class TwainNativeTransfer extends TwainTransfer {
         source.call(Twain.DG_IMAGE, Twain.DAT_IMAGENATIVEXFER, Twain.MSG_GET, imageHandle);
     }
 
+    protected int getHandle() {
+        return TwainUtils.getINT32(imageHandle, 0);
+    }
+
     @Override
     public void finish() throws TwainException {
-        int handle = TwainUtils.getINT32(imageHandle, 0);
-        Twain.transferNativeImage(handle);
+        Twain.transferNativeImage(getHandle());
     }
 
 }
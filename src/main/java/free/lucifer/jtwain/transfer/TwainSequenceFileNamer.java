@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import free.lucifer.jtwain.TwainSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Names pages prefix + sequence number in a fixed directory. The directories
+ * are created and the highest existing number is looked up once, when the
+ * namer is made. Pages are written to a staging directory, where every name
+ * is reserved by creating the file, skipping numbers taken meanwhile by
+ * another process. A complete page is published into the target directory as
+ * a hard link, which appears atomically and fails instead of replacing a file
+ * of the same name; the page then gets the next free number. The target only
+ * ever holds complete files and nothing in it is overwritten. On file systems
+ * without hard links the page is moved without replacing instead.
+ *
+ * @author lucifer
+ */
+public class TwainSequenceFileNamer implements TwainFileTransferNamer {
+
+    private static final String STAGING = ".staging";
+
+    private final File staging;
+    private final File target;
+    private final String prefix;
+    private final AtomicLong sequence;
+    private volatile boolean links = true;
+
+    /**
+     * Stages pages in a subdirectory of {@code directory}.
+     */
+    public TwainSequenceFileNamer(File directory, String prefix) throws IOException {
+        this(new File(directory, STAGING), directory, prefix);
+    }
+
+    /**
+     * @param staging directory pages are written to, on the same file store as
+     * {@code target} for the rename to be atomic. May be {@code target} itself,
+     * in which case pages are not moved
+     */
+    public TwainSequenceFileNamer(File staging, File target, String prefix) throws IOException {
+        this.staging = staging;
+        this.target = target;
+        this.prefix = prefix;
+        Files.createDirectories(target.toPath());
+        Files.createDirectories(staging.toPath());
+        this.sequence = new AtomicLong(findLast() + 1);
+    }
+
+    public File getStaging() {
+        return staging;
+    }
+
+    public File getTarget() {
+        return target;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return number the next page gets
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    public void setSequence(long next) {
+        sequence.set(next);
+    }
+
+    @Override
+    public File next(TwainSource source, String extension) throws IOException {
+        while (true) {
+            File file = new File(staging, name(extension));
+            if (reserve(file)) {
+                return file;
+            }
+        }
+    }
+
+    @Override
+    public File land(File file) throws IOException {
+        if (staging.equals(target)) {
+            return file;
+        }
+        String name = file.getName();
+        String extension = name.lastIndexOf('.') < 0 ? "" : name.substring(name.lastIndexOf('.'));
+        File landed = new File(target, name);
+        while (true) {
+            try {
+                publish(file, landed);
+                return landed;
+            } catch (FileAlreadyExistsException e) {
+                landed = new File(target, name(extension));
+            }
+        }
+    }
+
+    /**
+     * Atomic rename would do, but Files.move with ATOMIC_MOVE replaces an
+     * existing target on both Windows and POSIX, so the page is linked and
+     * the staged name removed.
+     *
+     * @throws FileAlreadyExistsException if {@code landed} is taken
+     */
+    private void publish(File file, File landed) throws IOException {
+        if (links) {
+            try {
+                Files.createLink(landed.toPath(), file.toPath());
+                file.delete();
+                return;
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                links = false;
+            }
+        }
+        Files.move(file.toPath(), landed.toPath());
+    }
+
+    private String name(String extension) {
+        return String.format("%s%08d%s", prefix, sequence.getAndIncrement(), extension);
+    }
+
+    /**
+     * Creates the staging file unless it exists.
+     */
+    private static boolean reserve(File file) throws IOException {
+        try {
+            Files.createFile(file.toPath());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private long findLast() {
+        long last = 0;
+        String[] names = target.list();
+        if (names == null) {
+            return last;
+        }
+        for (String name : names) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            int end = prefix.length();
+            while (end < name.length() && Character.isDigit(name.charAt(end))) {
+                end++;
+            }
+            if (end > prefix.length() && end - prefix.length() < 19) {
+                last = Math.max(last, Long.parseLong(name.substring(prefix.length(), end)));
+            }
+        }
+        return last;
+    }
+
+}
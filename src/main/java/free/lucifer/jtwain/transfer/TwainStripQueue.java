@@ -0,0 +1,395 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.transfer;
+
+import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.exceptions.TwainException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer, single consumer ring of strip buffers between the
+ * message pump thread running a memory transfer and a worker delivering the
+ * strips to listeners. The pump only copies each strip into a free slot; when
+ * the ring is full it waits ({@link Overflow#BLOCK}), appends the strip to a
+ * temp file that the worker reads back in order ({@link Overflow#SPILL}), or
+ * aborts the transfer ({@link Overflow#FAIL}).
+ * <p>
+ * One queue serves one source, set with
+ * {@link free.lucifer.jtwain.TwainSource#setStripQueue(TwainStripQueue)}, and
+ * keeps its metrics across pages.
+ *
+ * @author lucifer
+ */
+public class TwainStripQueue {
+
+    public enum Overflow {
+        BLOCK, SPILL, FAIL
+    }
+
+    public interface Consumer {
+
+        void accept(TwainMemoryTransfer.Info strip) throws Exception;
+    }
+
+    private static final long PARK_NANOS = 100000L;
+
+    private static volatile Executor executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "twain-strip-worker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final int slots;
+    private final int mask;
+    private final Overflow overflow;
+
+    private TwainMemoryTransfer.Info[] ring;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private TwainMemoryTransfer.Info spillIn;
+    private TwainMemoryTransfer.Info spillOut;
+    private final Queue<Spilled> spilled = new ConcurrentLinkedQueue<>();
+    private FileChannel spill;
+    private long spillPosition;
+
+    private volatile boolean closed;
+    private volatile boolean aborted;
+    private volatile Throwable failure;
+    private volatile Thread worker;
+    private volatile Thread producer;
+    private CountDownLatch done;
+
+    private volatile int maxOccupancy;
+    private final AtomicLong stallNanos = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong spilledStrips = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    /**
+     * @param slots ring size, rounded up to a power of two
+     */
+    public TwainStripQueue(int slots, Overflow overflow) {
+        int n = Integer.highestOneBit(Math.max(1, slots));
+        this.slots = n < slots ? n << 1 : n;
+        this.mask = this.slots - 1;
+        this.overflow = overflow;
+    }
+
+    public static void setExecutor(Executor e) {
+        executor = e;
+    }
+
+    public static Executor getExecutor() {
+        return executor;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return strips copied in but not yet delivered
+     */
+    public int getOccupancy() {
+        return (int) (tail.get() - head.get()) + spilled.size();
+    }
+
+    public int getMaxOccupancy() {
+        return maxOccupancy;
+    }
+
+    /**
+     * @return total time the pump thread waited for a free slot
+     */
+    public long getStallNanos() {
+        return stallNanos.get();
+    }
+
+    public long getDeliveredStrips() {
+        return delivered.get();
+    }
+
+    public long getSpilledStrips() {
+        return spilledStrips.get();
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    public void resetMetrics() {
+        maxOccupancy = 0;
+        stallNanos.set(0);
+        delivered.set(0);
+        spilledStrips.set(0);
+        spilledBytes.set(0);
+    }
+
+    /**
+     * Starts the worker for a page.
+     */
+    void start(int slotSize, final Consumer consumer) {
+        if (ring == null || ring[0].getSize() != slotSize) {
+            ring = new TwainMemoryTransfer.Info[slots];
+            for (int i = 0; i < slots; i++) {
+                ring[i] = new TwainMemoryTransfer.Info(slotSize);
+            }
+            spillIn = new TwainMemoryTransfer.Info(slotSize);
+            spillOut = new TwainMemoryTransfer.Info(slotSize);
+        }
+        head.set(0);
+        tail.set(0);
+        spilled.clear();
+        spillPosition = 0;
+        closed = false;
+        aborted = false;
+        failure = null;
+        done = new CountDownLatch(1);
+        final CountDownLatch latch = done;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                worker = Thread.currentThread();
+                try {
+                    drain(consumer);
+                } finally {
+                    worker = null;
+                    latch.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return slot to copy the next strip into
+     */
+    TwainMemoryTransfer.Info claim() throws TwainException {
+        checkFailure();
+        long t = tail.get();
+        if (overflow == Overflow.SPILL && !spilled.isEmpty()) {
+            return spillIn;
+        }
+        if (t - head.get() >= slots) {
+            switch (overflow) {
+                case FAIL:
+                    throw new TwainException(getClass().getName() + ".claim:\n\tStrip queue full, " + slots + " strips pending");
+                case SPILL:
+                    return spillIn;
+                default:
+                    long start = System.nanoTime();
+                    producer = Thread.currentThread();
+                    try {
+                        while (t - head.get() >= slots) {
+                            checkFailure();
+                            LockSupport.parkNanos(this, PARK_NANOS);
+                        }
+                    } finally {
+                        producer = null;
+                    }
+                    stallNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+        return ring[(int) t & mask];
+    }
+
+    void publish(TwainMemoryTransfer.Info strip) throws TwainException {
+        if (strip == spillIn) {
+            spill(strip);
+        } else {
+            long t = tail.get() + 1;
+            tail.lazySet(t);
+            int occupancy = (int) (t - head.get());
+            if (occupancy > maxOccupancy) {
+                maxOccupancy = occupancy;
+            }
+        }
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Waits until every strip is delivered and closes the spill file.
+     */
+    void finish() throws TwainException {
+        closed = true;
+        LockSupport.unpark(worker);
+        await();
+        closeSpill();
+        checkFailure();
+    }
+
+    /**
+     * Drops the strips still queued, waits for the worker to stop and closes
+     * the spill file.
+     */
+    void abort() {
+        aborted = true;
+        closed = true;
+        LockSupport.unpark(worker);
+        await();
+        try {
+            close();
+        } catch (IOException e) {
+            Twain.signalException(getClass().getName() + ".abort:\n\t" + e.getMessage());
+        }
+    }
+
+    private void await() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkFailure() throws TwainException {
+        Throwable f = failure;
+        if (f != null) {
+            if (f instanceof TwainException) {
+                throw (TwainException) f;
+            }
+            throw new TwainException(getClass().getName() + ":\n\tStrip consumer failed: " + f, f);
+        }
+    }
+
+    private void drain(Consumer consumer) {
+        while (!aborted) {
+            boolean end = closed;
+            long h = head.get();
+            TwainMemoryTransfer.Info strip = null;
+            Spilled s = null;
+            if (h != tail.get()) {
+                strip = ring[(int) h & mask];
+            } else if ((s = spilled.peek()) != null) {
+                strip = spillOut;
+            } else if (end) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+                continue;
+            }
+            try {
+                if (s != null) {
+                    unspill(s, strip);
+                }
+                if (failure == null) {
+                    consumer.accept(strip);
+                    delivered.incrementAndGet();
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+            if (s != null) {
+                spilled.poll();
+            } else {
+                head.lazySet(h + 1);
+                LockSupport.unpark(producer);
+            }
+        }
+    }
+
+    private void spill(TwainMemoryTransfer.Info strip) throws TwainException {
+        int length = strip.getLength();
+        try {
+            if (spill == null) {
+                File file = File.createTempFile("twain", ".strips");
+                spill = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            ByteBuffer src = ByteBuffer.wrap(strip.getBuffer(), 0, length);
+            long position = spillPosition;
+            while (src.hasRemaining()) {
+                position += spill.write(src, position);
+            }
+        } catch (IOException e) {
+            throw new TwainException(getClass().getName() + ".spill:\n\t" + e.getMessage(), e);
+        }
+        Spilled s = new Spilled(strip, spillPosition);
+        spillPosition += length;
+        spilledStrips.incrementAndGet();
+        spilledBytes.addAndGet(length);
+        spilled.add(s);
+    }
+
+    private void unspill(Spilled s, TwainMemoryTransfer.Info strip) throws IOException {
+        strip.load(s.info);
+        ByteBuffer dst = ByteBuffer.wrap(strip.getBuffer(), 0, s.info.getLength());
+        long position = s.position;
+        while (dst.hasRemaining()) {
+            int n = spill.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of spill file");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Closes the spill file, if any. Transfers close it after every page.
+     */
+    public void close() throws IOException {
+        if (spill != null) {
+            FileChannel ch = spill;
+            spill = null;
+            ch.close();
+        }
+    }
+
+    private void closeSpill() throws TwainException {
+        try {
+            close();
+        } catch (IOException e) {
+            throw new TwainException(getClass().getName() + ".close:\n\t" + e.getMessage(), e);
+        }
+    }
+
+    private static class Spilled {
+
+        final TwainMemoryTransfer.Info info;
+        final long position;
+
+        Spilled(TwainMemoryTransfer.Info strip, long position) {
+            this.info = new TwainMemoryTransfer.Info(0);
+            this.info.load(strip);
+            this.position = position;
+        }
+    }
+}
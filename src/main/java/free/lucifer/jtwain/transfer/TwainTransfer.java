@@ -16,6 +16,7 @@
 package free.lucifer.jtwain.transfer;
 
 import free.lucifer.jtwain.Twain;
+import free.lucifer.jtwain.TwainImageInfo;
 import free.lucifer.jtwain.TwainSource;
 import free.lucifer.jtwain.exceptions.TwainException;
 import free.lucifer.jtwain.exceptions.TwainUserCancelException;
@@ -28,6 +29,7 @@ public class TwainTransfer {
 
     protected TwainSource source;
     protected boolean isCancelled;
+    protected TwainImageInfo imageInfo;
 
     public TwainTransfer(TwainSource source) {
         this.source = source;
@@ -36,6 +38,32 @@ public class TwainTransfer {
 
     public void initiate() throws TwainException {
         commitCancel();
+        retrieveImageInfo();
+    }
+
+    /**
+     * Queries DAT_IMAGEINFO while still in state 6 and publishes it with a
+     * {@link free.lucifer.jtwain.TwainIOMetadata#IMAGEINFO} event before any
+     * data is transferred. Sources that cannot report it leave
+     * {@link #getImageInfo()} null.
+     */
+    protected void retrieveImageInfo() throws TwainException {
+        imageInfo = null;
+        TwainImageInfo ii = new TwainImageInfo(source);
+        try {
+            ii.get();
+        } catch (TwainException e) {
+            return;
+        }
+        imageInfo = ii;
+        Twain.transferImageInfo(ii);
+    }
+
+    /**
+     * @return image info of the current page, or null
+     */
+    public TwainImageInfo getImageInfo() {
+        return imageInfo;
     }
 
     public void setCancel(boolean isCancelled) {
@@ -54,6 +82,12 @@ public class TwainTransfer {
     public void cancel() throws TwainException {
     }
 
+    /**
+     * Called once after the last pending transfer of a run.
+     */
+    public void complete() throws TwainException {
+    }
+
     public void cleanup() throws TwainException {
     }
 }
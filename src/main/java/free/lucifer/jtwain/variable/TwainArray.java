@@ -17,27 +17,15 @@ package free.lucifer.jtwain.variable;
 
 import free.lucifer.jtwain.Twain;
 import free.lucifer.jtwain.exceptions.TwainException;
-import free.lucifer.jtwain.utils.TwainUtils;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  *
  * @author lucifer
  */
-public class TwainArray extends TwainContainer {
-
-    int count;
-    List<Object> items = new ArrayList<>();
+public class TwainArray extends TwainItemList {
 
     public TwainArray(int cap, byte[] container) {
-        super(cap, container);
-        count = TwainUtils.getINT32(container, 2);
-
-        for (int i = 0, off = 6; i < count; i++) {
-            items.add(getObjectAt(container, off));
-            off += TYPE_SIZES[type];
-        }
+        super(cap, container, 6);
     }
 
     @Override
@@ -47,17 +35,7 @@ public class TwainArray extends TwainContainer {
 
     @Override
     public byte[] getBytes() {
-        int count = items.size();
-        int len = 6 + count * TYPE_SIZES[type];
-        byte[] container = new byte[len];
-        TwainUtils.setINT16(container, 0, type);
-        TwainUtils.setINT32(container, 2, count);
-
-        for (int i = 0, off = 6; i < count; i++) {
-            setObjectAt(container, off, items.get(i));
-            off += TYPE_SIZES[type];
-        }
-        return container;
+        return copyBytes();
     }
 
     @Override
@@ -80,9 +58,4 @@ public class TwainArray extends TwainContainer {
         throw new TwainException(getClass().getName() + ".setDefaultValue:\n\tnot applicable");
     }
 
-    @Override
-    public <T> T[] getItems() {
-        return (T[]) items.toArray();
-    }
-
 }
@@ -19,8 +19,16 @@ import free.lucifer.jtwain.Twain;
 import free.lucifer.jtwain.exceptions.TwainException;
 import free.lucifer.jtwain.utils.TwainUtils;
 import java.awt.geom.Rectangle2D;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 /**
+ * Capability container. Besides the boxed {@link #getItems()} every container
+ * offers primitive views of its items; {@link TwainArray} and
+ * {@link TwainEnumeration} answer them straight from the little-endian
+ * container bytes, {@link TwainOneValue} and {@link TwainRange} from the
+ * 32-bit items as read, without boxing.
  *
  * @author lucifer
  */
@@ -35,6 +43,7 @@ public abstract class TwainContainer {
     };
     protected int cap;
     protected int type;
+    private ByteBuffer wrapped;
 
     TwainContainer(int cap, byte[] container) {
         this.cap = cap;
@@ -60,6 +69,66 @@ public abstract class TwainContainer {
 
     abstract public <T> T[] getItems();
 
+    public int getCount() {
+        return getItems().length;
+    }
+
+    public int[] getIntItems() throws TwainException {
+        Object[] items = getItems();
+        int[] values = new int[items.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = intValue(items[i]);
+        }
+        return values;
+    }
+
+    public long[] getLongItems() throws TwainException {
+        Object[] items = getItems();
+        long[] values = new long[items.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = items[i] instanceof Number ? ((Number) items[i]).longValue() : intValue(items[i]);
+        }
+        return values;
+    }
+
+    public double[] getDoubleItems() throws TwainException {
+        Object[] items = getItems();
+        double[] values = new double[items.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = doubleValue(items[i]);
+        }
+        return values;
+    }
+
+    public String[] getStringItems() {
+        Object[] items = getItems();
+        String[] values = new String[items.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = String.valueOf(items[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return index of the first item equal to {@code v}, or -1
+     */
+    public int indexOf(int v) throws TwainException {
+        return indexOf((double) v);
+    }
+
+    /**
+     * @return index of the first item equal to {@code v}, or -1
+     */
+    public int indexOf(double v) throws TwainException {
+        double[] values = getDoubleItems();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private boolean booleanValue(Object obj) throws TwainException {
         if (obj instanceof Number) {
             return (((Number) obj).intValue() != 0);
@@ -163,21 +232,28 @@ public abstract class TwainContainer {
     }
 
     protected Object get32BitObjectAt(byte[] container, int index) {
+        return get32BitObject(TwainUtils.getINT32(container, index));
+    }
+
+    /**
+     * Boxes the 32-bit item of a ONEVALUE or RANGE.
+     */
+    protected Object get32BitObject(int word) {
         switch (type) {
             case Twain.TWTY_INT8:
             case Twain.TWTY_INT16:
             case Twain.TWTY_INT32:
-                return TwainUtils.getINT32(container, index);
+                return word;
             case Twain.TWTY_UINT8:
-                return TwainUtils.getINT32(container, index) & 0x000000FF;
+                return word & 0x000000FF;
             case Twain.TWTY_UINT16:
-                return TwainUtils.getINT32(container, index) & 0x0000FFFF;
+                return word & 0x0000FFFF;
             case Twain.TWTY_UINT32:
-                return ((long) TwainUtils.getINT32(container, index)) & 0x00000000FFFFFFFFL;
+                return ((long) word) & 0x00000000FFFFFFFFL;
             case Twain.TWTY_BOOL:
-                return (TwainUtils.getINT32(container, index) != 0);
+                return (word != 0);
             case Twain.TWTY_FIX32:
-                return TwainUtils.getFIX32(container, index);
+                return fix32(word);
 
             case Twain.TWTY_FRAME:
             case Twain.TWTY_STR32:
@@ -186,12 +262,45 @@ public abstract class TwainContainer {
             case Twain.TWTY_STR255:
             case Twain.TWTY_STR1024:
             case Twain.TWTY_UNI512:
-                return TwainUtils.getINT32(container, index);
+                return word;
             default:
         }
         return null;
     }
 
+    /**
+     * The 32-bit item of a ONEVALUE or RANGE as long, decoded like
+     * {@link #get32BitObject(int)} without boxing; FIX32 truncated.
+     */
+    protected long wordLong(int word) {
+        switch (type) {
+            case Twain.TWTY_UINT8:
+                return word & 0x000000FF;
+            case Twain.TWTY_UINT16:
+                return word & 0x0000FFFF;
+            case Twain.TWTY_UINT32:
+                return word & 0x00000000FFFFFFFFL;
+            case Twain.TWTY_BOOL:
+                return word != 0 ? 1 : 0;
+            case Twain.TWTY_FIX32:
+                return (long) fix32(word);
+            default:
+                return word;
+        }
+    }
+
+    protected int wordInt(int word) {
+        return (int) wordLong(word);
+    }
+
+    protected double wordDouble(int word) {
+        return type == Twain.TWTY_FIX32 ? fix32(word) : wordLong(word);
+    }
+
+    private static double fix32(int word) {
+        return (short) word + (word >>> 16) / 65536.0;
+    }
+
     protected void set32BitObjectAt(byte[] container, int index, Object item) {
         if (item instanceof Integer) {
             int v = ((Integer) item);
@@ -235,44 +344,137 @@ public abstract class TwainContainer {
         }
     }
 
+    /**
+     * Wraps {@code container} once and reuses the view for the following items
+     * of the same array.
+     */
     protected Object getObjectAt(byte[] container, int index) {
+        if (wrapped == null || wrapped.array() != container) {
+            wrapped = wrap(container);
+        }
+        return getObjectAt(wrapped, index);
+    }
+
+    protected Object getObjectAt(ByteBuffer container, int index) {
         switch (type) {
             case Twain.TWTY_INT8:
-                return new Integer(container[index]);
             case Twain.TWTY_INT16:
-                return TwainUtils.getINT16(container, index);
             case Twain.TWTY_INT32:
-                return TwainUtils.getINT32(container, index);
             case Twain.TWTY_UINT8:
-                return container[index] & 0x000000FF;
             case Twain.TWTY_UINT16:
-                return TwainUtils.getINT16(container, index) & 0x0000FFFF;
+                return intAt(container, index);
             case Twain.TWTY_UINT32:
-                return ((long) TwainUtils.getINT32(container, index)) & 0x00000000FFFFFFFFL;
+                return longAt(container, index);
             case Twain.TWTY_BOOL:
-                return (TwainUtils.getINT16(container, index) != 0);
+                return intAt(container, index) != 0;
             case Twain.TWTY_FIX32:
-                return TwainUtils.getFIX32(container, index);
+                return doubleAt(container, index);
             case Twain.TWTY_FRAME:
-                double x = TwainUtils.getFIX32(container, index);          // left
-                double y = TwainUtils.getFIX32(container, index + 4);        // top
-                double w = TwainUtils.getFIX32(container, index + 8) - x;      // right
-                double h = TwainUtils.getFIX32(container, index + 12) - y;     // bottom
+                double x = fix32At(container, index);          // left
+                double y = fix32At(container, index + 4);        // top
+                double w = fix32At(container, index + 8) - x;      // right
+                double h = fix32At(container, index + 12) - y;     // bottom
                 return new Rectangle2D.Double(x, y, w, h);
             case Twain.TWTY_STR32:
             case Twain.TWTY_STR64:
             case Twain.TWTY_STR128:
             case Twain.TWTY_STR255:
-                String s = "";
-                for (int i = 0; (container[index + i] != 0) && (i < TYPE_SIZES[type]); i++) {
-                    s += (char) container[index + i];
-                }
-                return s;
+                return stringAt(container, index);
             default:
         }
         return null;
     }
 
+    protected static ByteBuffer wrap(byte[] container) {
+        return ByteBuffer.wrap(container).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Item at a byte offset as int, FIX32 truncated, UINT32 above
+     * Integer.MAX_VALUE wraps; see {@link #longAt(ByteBuffer, int)}.
+     */
+    protected int intAt(ByteBuffer container, int index) {
+        switch (type) {
+            case Twain.TWTY_INT8:
+                return container.get(index);
+            case Twain.TWTY_UINT8:
+                return container.get(index) & 0xFF;
+            case Twain.TWTY_INT16:
+                return container.getShort(index);
+            case Twain.TWTY_UINT16:
+                return container.getShort(index) & 0xFFFF;
+            case Twain.TWTY_BOOL:
+                return container.getShort(index) != 0 ? 1 : 0;
+            case Twain.TWTY_FIX32:
+                return (int) fix32At(container, index);
+            case Twain.TWTY_INT32:
+            case Twain.TWTY_UINT32:
+                return container.getInt(index);
+            default:
+                return 0;
+        }
+    }
+
+    protected long longAt(ByteBuffer container, int index) {
+        if (type == Twain.TWTY_UINT32) {
+            return container.getInt(index) & 0xFFFFFFFFL;
+        }
+        return intAt(container, index);
+    }
+
+    protected double doubleAt(ByteBuffer container, int index) {
+        if (type == Twain.TWTY_FIX32) {
+            return fix32At(container, index);
+        }
+        return longAt(container, index);
+    }
+
+    protected String stringAt(ByteBuffer container, int index) {
+        switch (type) {
+            case Twain.TWTY_STR32:
+            case Twain.TWTY_STR64:
+            case Twain.TWTY_STR128:
+            case Twain.TWTY_STR255:
+                int max = Math.min(TYPE_SIZES[type], container.limit() - index);
+                int len = 0;
+                while (len < max && container.get(index + len) != 0) {
+                    len++;
+                }
+                if (container.hasArray()) {
+                    return new String(container.array(), container.arrayOffset() + index, len, StandardCharsets.ISO_8859_1);
+                }
+                byte[] chars = new byte[len];
+                for (int i = 0; i < len; i++) {
+                    chars[i] = container.get(index + i);
+                }
+                return new String(chars, StandardCharsets.ISO_8859_1);
+            case Twain.TWTY_FIX32:
+                return Double.toString(fix32At(container, index));
+            default:
+                return String.valueOf(getObjectAt(container, index));
+        }
+    }
+
+    protected boolean isNumeric() {
+        switch (type) {
+            case Twain.TWTY_INT8:
+            case Twain.TWTY_INT16:
+            case Twain.TWTY_INT32:
+            case Twain.TWTY_UINT8:
+            case Twain.TWTY_UINT16:
+            case Twain.TWTY_UINT32:
+            case Twain.TWTY_BOOL:
+            case Twain.TWTY_FIX32:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static double fix32At(ByteBuffer container, int index) {
+        return container.getShort(index) + (container.getShort(index + 2) & 0xFFFF) / 65536.0;
+    }
+
     private void set16BitObjectAt(byte[] container, int index, Object item) {
         if (item instanceof Number) {
             int v = (((Number) item).intValue());
@@ -18,30 +18,20 @@ package free.lucifer.jtwain.variable;
 import free.lucifer.jtwain.Twain;
 import free.lucifer.jtwain.exceptions.TwainException;
 import free.lucifer.jtwain.utils.TwainUtils;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  *
  * @author lucifer
  */
-public class TwainEnumeration extends TwainContainer {
+public class TwainEnumeration extends TwainItemList {
 
-    int count;
     int currentIndex;
     int defaultIndex;
-    List<Object> items = new ArrayList<>();
 
     public TwainEnumeration(int cap, byte[] container) {
-        super(cap, container);
-        count = TwainUtils.getINT32(container, 2);
-        currentIndex = TwainUtils.getINT32(container, 6);
-        defaultIndex = TwainUtils.getINT32(container, 10);
-
-        for (int i = 0, off = 14; i < count; i++) {
-            items.add(getObjectAt(container, off));
-            off += TYPE_SIZES[type];
-        }
+        super(cap, container, 14);
+        currentIndex = data.getInt(6);
+        defaultIndex = data.getInt(10);
     }
 
     @Override
@@ -49,62 +39,75 @@ public class TwainEnumeration extends TwainContainer {
         return Twain.TWON_ENUMERATION;
     }
 
-    @Override
-    public <T> T[] getItems() {
-        return (T[]) items.toArray();
-    }
-
     @Override
     public byte[] getBytes() {
-        int count = items.size();
-        int len = 14 + count * TYPE_SIZES[type];
-        byte[] container = new byte[len];
-        TwainUtils.setINT16(container, 0, type);
-        TwainUtils.setINT32(container, 2, count);
+        byte[] container = copyBytes();
         TwainUtils.setINT32(container, 6, currentIndex);
         TwainUtils.setINT32(container, 10, defaultIndex);
-
-        for (int i = 0, off = 14; i < count; i++) {
-            setObjectAt(container, off, items.get(i));
-            off += TYPE_SIZES[type];
-        }
         return container;
     }
 
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    public void setCurrentIndex(int index) throws TwainException {
+        currentIndex = checkIndex(index);
+    }
+
+    public int getDefaultIndex() {
+        return defaultIndex;
+    }
+
     @Override
     public Object getCurrentValue() throws TwainException {
-        return items.get(currentIndex);
+        return getItem(checkIndex(currentIndex));
+    }
+
+    @Override
+    public int intValue() throws TwainException {
+        if (!isNumeric()) {
+            return super.intValue();
+        }
+        return getInt(checkIndex(currentIndex));
+    }
+
+    @Override
+    public double doubleValue() throws TwainException {
+        if (!isNumeric()) {
+            return super.doubleValue();
+        }
+        return getDouble(checkIndex(currentIndex));
     }
 
     @Override
     public void setCurrentValue(Object obj) throws TwainException {
-        int count = items.size();
-        for (int i = 0; i < count; i++) {
-            Object item = items.get(i);
-            if (obj.equals(item)) {
-                currentIndex = i;
-                return;
-            }
+        int i = indexOfObject(obj);
+        if (i < 0) {
+            throw new TwainException(getClass().getName() + ".setCurrentValue:\n\tCould not find " + obj.toString());
         }
-        throw new TwainException(getClass().getName() + ".setCurrentValue:\n\tCould not find " + obj.toString());
+        currentIndex = i;
     }
 
     @Override
     public Object getDefaultValue() throws TwainException {
-        return items.get(defaultIndex);
+        return getItem(checkIndex(defaultIndex));
     }
 
     @Override
     public void setDefaultValue(Object obj) throws TwainException {
-        int count = items.size();
-        for (int i = 0; i < count; i++) {
-            Object item = items.get(i);
-            if (obj.equals(item)) {
-                defaultIndex = i;
-                return;
-            }
+        int i = indexOfObject(obj);
+        if (i < 0) {
+            throw new TwainException(getClass().getName() + ".setDefaultValue:\n\tCould not find " + obj.toString());
+        }
+        defaultIndex = i;
+    }
+
+    private int checkIndex(int index) throws TwainException {
+        if (index < 0 || index >= count) {
+            throw new TwainException(getClass().getName() + ".checkIndex:\n\tIndex " + index + " out of " + count + " items");
         }
-        throw new TwainException(getClass().getName() + ".setDefaultValue:\n\tCould not find " + obj.toString());
+        return index;
     }
 
 }
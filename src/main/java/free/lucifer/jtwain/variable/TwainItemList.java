@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 (c) Denis Andreev (lucifer).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package free.lucifer.jtwain.variable;
+
+import free.lucifer.jtwain.exceptions.TwainException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Container holding a list of items. The items stay in the container bytes
+ * and are decoded on access, the boxed {@link #getItems()} view is built on
+ * first use only. Items never change after the container is read, so
+ * {@link #getBytes()} copies the bytes back instead of encoding every item.
+ *
+ * @author lucifer
+ */
+public abstract class TwainItemList extends TwainContainer {
+
+    protected final ByteBuffer data;
+    protected final int offset;
+    protected final int count;
+    private Object[] items;
+
+    TwainItemList(int cap, byte[] container, int offset) {
+        super(cap, container);
+        this.data = wrap(container);
+        this.offset = offset;
+        this.count = data.getInt(2);
+    }
+
+    protected int itemOffset(int i) {
+        return offset + i * TYPE_SIZES[type];
+    }
+
+    protected byte[] copyBytes() {
+        return Arrays.copyOf(data.array(), itemOffset(count));
+    }
+
+    protected Object getItem(int i) {
+        return getObjectAt(data, itemOffset(i));
+    }
+
+    @Override
+    public <T> T[] getItems() {
+        if (items == null) {
+            Object[] list = new Object[count];
+            for (int i = 0; i < count; i++) {
+                list[i] = getItem(i);
+            }
+            items = list;
+        }
+        return (T[]) items.clone();
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    public int getInt(int i) throws TwainException {
+        checkNumeric();
+        return intAt(data, itemOffset(i));
+    }
+
+    public long getLong(int i) throws TwainException {
+        checkNumeric();
+        return longAt(data, itemOffset(i));
+    }
+
+    public double getDouble(int i) throws TwainException {
+        checkNumeric();
+        return doubleAt(data, itemOffset(i));
+    }
+
+    public String getString(int i) {
+        return stringAt(data, itemOffset(i));
+    }
+
+    @Override
+    public int[] getIntItems() throws TwainException {
+        checkNumeric();
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = intAt(data, itemOffset(i));
+        }
+        return values;
+    }
+
+    @Override
+    public long[] getLongItems() throws TwainException {
+        checkNumeric();
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = longAt(data, itemOffset(i));
+        }
+        return values;
+    }
+
+    @Override
+    public double[] getDoubleItems() throws TwainException {
+        checkNumeric();
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = doubleAt(data, itemOffset(i));
+        }
+        return values;
+    }
+
+    @Override
+    public String[] getStringItems() {
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = stringAt(data, itemOffset(i));
+        }
+        return values;
+    }
+
+    @Override
+    public int indexOf(double v) throws TwainException {
+        checkNumeric();
+        for (int i = 0; i < count; i++) {
+            if (doubleAt(data, itemOffset(i)) == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the first item equal to {@code obj}, numbers compared
+     * by value whatever their boxed type, or -1
+     */
+    protected int indexOfObject(Object obj) throws TwainException {
+        if (obj instanceof Number && isNumeric()) {
+            return indexOf(((Number) obj).doubleValue());
+        }
+        if (obj instanceof String && !isNumeric()) {
+            for (int i = 0; i < count; i++) {
+                if (obj.equals(getString(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if (obj.equals(getItem(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void checkNumeric() throws TwainException {
+        if (!isNumeric()) {
+            throw new TwainException(getClass().getName() + ".checkNumeric:\n\tItems of type " + type + " are not numbers");
+        }
+    }
+
+}
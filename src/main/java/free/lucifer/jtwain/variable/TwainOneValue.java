@@ -20,16 +20,22 @@ import free.lucifer.jtwain.exceptions.TwainException;
 import free.lucifer.jtwain.utils.TwainUtils;
 
 /**
+ * Single item container. The item is kept as the 32-bit word read from the
+ * source and the primitive accessors decode it directly; it is boxed only
+ * when asked for as an object, and replaced by the object once set.
  *
  * @author lucifer
  */
 public class TwainOneValue extends TwainContainer {
 
+    private int word;
+    private boolean raw;
     Object item;
 
     public TwainOneValue(int cap, byte[] container) {
         super(cap, container);
-        item = get32BitObjectAt(container, 2);
+        word = TwainUtils.getINT32(container, 2);
+        raw = true;
     }
 
     @Override
@@ -41,34 +47,104 @@ public class TwainOneValue extends TwainContainer {
     public byte[] getBytes() {
         byte[] container = new byte[6];
         TwainUtils.setINT16(container, 0, type);
-        set32BitObjectAt(container, 2, item);
+        if (raw) {
+            TwainUtils.setINT32(container, 2, word);
+        } else {
+            set32BitObjectAt(container, 2, item);
+        }
         return container;
     }
 
+    private Object item() {
+        if (raw && item == null) {
+            item = get32BitObject(word);
+        }
+        return item;
+    }
+
     @Override
     public Object getCurrentValue() throws TwainException {
-        return item;
+        return item();
     }
 
     @Override
     public void setCurrentValue(Object obj) throws TwainException {
         item = obj;
+        raw = false;
     }
 
     @Override
     public Object getDefaultValue() throws TwainException {
-        return item;
+        return item();
     }
 
     @Override
     public void setDefaultValue(Object obj) throws TwainException {
-        item = obj;
+        setCurrentValue(obj);
     }
 
     @Override
     public <T> T[] getItems() {
         Object[] items = new Object[1];
-        items[0] = item;
+        items[0] = item();
         return (T[]) items;
     }
+
+    @Override
+    public int getCount() {
+        return 1;
+    }
+
+    @Override
+    public int[] getIntItems() throws TwainException {
+        return raw ? new int[]{wordInt(word)} : super.getIntItems();
+    }
+
+    @Override
+    public long[] getLongItems() throws TwainException {
+        return raw ? new long[]{wordLong(word)} : super.getLongItems();
+    }
+
+    @Override
+    public double[] getDoubleItems() throws TwainException {
+        return raw ? new double[]{wordDouble(word)} : super.getDoubleItems();
+    }
+
+    @Override
+    public int indexOf(double v) throws TwainException {
+        if (raw) {
+            return wordDouble(word) == v ? 0 : -1;
+        }
+        return super.indexOf(v);
+    }
+
+    @Override
+    public boolean booleanValue() throws TwainException {
+        return raw ? wordInt(word) != 0 : super.booleanValue();
+    }
+
+    @Override
+    public int intValue() throws TwainException {
+        return raw ? wordInt(word) : super.intValue();
+    }
+
+    @Override
+    public double doubleValue() throws TwainException {
+        return raw ? wordDouble(word) : super.doubleValue();
+    }
+
+    @Override
+    public boolean booleanDefaultValue() throws TwainException {
+        return booleanValue();
+    }
+
+    @Override
+    public int intDefaultValue() throws TwainException {
+        return intValue();
+    }
+
+    @Override
+    public double doubleDefaultValue() throws TwainException {
+        return doubleValue();
+    }
 }
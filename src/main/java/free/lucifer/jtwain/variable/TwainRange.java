@@ -20,24 +20,32 @@ import free.lucifer.jtwain.exceptions.TwainException;
 import free.lucifer.jtwain.utils.TwainUtils;
 
 /**
+ * Range container. Minimum, maximum and step are kept as the 32-bit words
+ * read from the source; the default and current value too until they are
+ * set. The primitive accessors decode the words directly, boxing happens only
+ * when a value is asked for as an object.
  *
  * @author lucifer
  */
 public class TwainRange extends TwainContainer {
 
-    private final Object minValue;
-    private final Object maxValue;
-    private final Object stepSize;
+    private final int minValue;
+    private final int maxValue;
+    private final int stepSize;
+    private final int defaultWord;
+    private final int currentWord;
+    private boolean defaultRaw = true;
+    private boolean currentRaw = true;
     private Object defaultValue;
     private Object currentValue;
 
     public TwainRange(int cap, byte[] container) {
         super(cap, container);
-        minValue = get32BitObjectAt(container, 2);
-        maxValue = get32BitObjectAt(container, 6);
-        stepSize = get32BitObjectAt(container, 10);
-        defaultValue = get32BitObjectAt(container, 14);
-        currentValue = get32BitObjectAt(container, 18);
+        minValue = TwainUtils.getINT32(container, 2);
+        maxValue = TwainUtils.getINT32(container, 6);
+        stepSize = TwainUtils.getINT32(container, 10);
+        defaultWord = TwainUtils.getINT32(container, 14);
+        currentWord = TwainUtils.getINT32(container, 18);
     }
 
     @Override
@@ -49,39 +57,129 @@ public class TwainRange extends TwainContainer {
     public byte[] getBytes() {
         byte[] container = new byte[22];
         TwainUtils.setINT16(container, 0, type);
-        set32BitObjectAt(container, 2, minValue);
-        set32BitObjectAt(container, 6, maxValue);
-        set32BitObjectAt(container, 10, stepSize);
-        set32BitObjectAt(container, 14, defaultValue);
-        set32BitObjectAt(container, 18, currentValue);
+        TwainUtils.setINT32(container, 2, minValue);
+        TwainUtils.setINT32(container, 6, maxValue);
+        TwainUtils.setINT32(container, 10, stepSize);
+        if (defaultRaw) {
+            TwainUtils.setINT32(container, 14, defaultWord);
+        } else {
+            set32BitObjectAt(container, 14, defaultValue);
+        }
+        if (currentRaw) {
+            TwainUtils.setINT32(container, 18, currentWord);
+        } else {
+            set32BitObjectAt(container, 18, currentValue);
+        }
         return container;
     }
 
+    public double getMinimum() {
+        return wordDouble(minValue);
+    }
+
+    public double getMaximum() {
+        return wordDouble(maxValue);
+    }
+
+    public double getStepSize() {
+        return wordDouble(stepSize);
+    }
+
+    private Object current() {
+        if (currentRaw && currentValue == null) {
+            currentValue = get32BitObject(currentWord);
+        }
+        return currentValue;
+    }
+
     @Override
     public Object getCurrentValue() throws TwainException {
-        return currentValue;
+        return current();
     }
 
     @Override
     public void setCurrentValue(Object obj) throws TwainException {
         currentValue = obj;
+        currentRaw = false;
     }
 
     @Override
     public Object getDefaultValue() throws TwainException {
+        if (defaultRaw && defaultValue == null) {
+            defaultValue = get32BitObject(defaultWord);
+        }
         return defaultValue;
     }
 
     @Override
     public void setDefaultValue(Object obj) throws TwainException {
         defaultValue = obj;
+        defaultRaw = false;
     }
 
     @Override
     public Object[] getItems() {
         Object[] items = new Object[1];
-        items[0] = currentValue;
+        items[0] = current();
         return items;
     }
 
+    @Override
+    public int getCount() {
+        return 1;
+    }
+
+    @Override
+    public int[] getIntItems() throws TwainException {
+        return currentRaw ? new int[]{wordInt(currentWord)} : super.getIntItems();
+    }
+
+    @Override
+    public long[] getLongItems() throws TwainException {
+        return currentRaw ? new long[]{wordLong(currentWord)} : super.getLongItems();
+    }
+
+    @Override
+    public double[] getDoubleItems() throws TwainException {
+        return currentRaw ? new double[]{wordDouble(currentWord)} : super.getDoubleItems();
+    }
+
+    @Override
+    public int indexOf(double v) throws TwainException {
+        if (currentRaw) {
+            return wordDouble(currentWord) == v ? 0 : -1;
+        }
+        return super.indexOf(v);
+    }
+
+    @Override
+    public boolean booleanValue() throws TwainException {
+        return currentRaw ? wordInt(currentWord) != 0 : super.booleanValue();
+    }
+
+    @Override
+    public int intValue() throws TwainException {
+        return currentRaw ? wordInt(currentWord) : super.intValue();
+    }
+
+    @Override
+    public double doubleValue() throws TwainException {
+        return currentRaw ? wordDouble(currentWord) : super.doubleValue();
+    }
+
+    @Override
+    public boolean booleanDefaultValue() throws TwainException {
+        return defaultRaw ? wordInt(defaultWord) != 0 : super.booleanDefaultValue();
+    }
+
+    @Override
+    public int intDefaultValue() throws TwainException {
+        return defaultRaw ? wordInt(defaultWord) : super.intDefaultValue();
+    }
+
+    @Override
+    public double doubleDefaultValue() throws TwainException {
+        return defaultRaw ? wordDouble(defaultWord) : super.doubleDefaultValue();
+    }
+
 }